@@ -47,6 +47,12 @@ public class ServiceHandler implements RequestStreamHandler {
 
     context.getLogger().log("Object key: " + objectKey + "\n");
 
+    // thumbnails are written by this function itself and are never processed again
+    if (Thumbnail.isThumbnailKey(objectKey)) {
+      context.getLogger().log("Object is a thumbnail." + "\n");
+      return;
+    }
+
     var getObjectRequest = GetObjectRequest.builder()
         .bucket(BUCKET_NAME)
         .key(objectKey)
@@ -96,6 +102,9 @@ public class ServiceHandler implements RequestStreamHandler {
 
         context.getLogger().log("NEW IMAGE LINK: " + objectKey + "\n");
 
+        putThumbnails(s3Client, objectKey, imageBytes, ContentType.IMAGE_JPEG.getMimeType(),
+            context);
+
         var putObjectRequest = PutObjectRequest.builder()
             .bucket(BUCKET_NAME)
             .key(objectKey)
@@ -111,6 +120,10 @@ public class ServiceHandler implements RequestStreamHandler {
 
     } else {
       var extension = s3ObjectResponse.response().contentType();
+      var watermarkedImage = Watermark.watermarkImage(objectData,
+          extension.substring(extension.lastIndexOf("/") + 1));
+
+      putThumbnails(s3Client, objectKey, watermarkedImage, extension, context);
 
       var putObjectRequest = PutObjectRequest.builder()
           .bucket(BUCKET_NAME)
@@ -118,9 +131,7 @@ public class ServiceHandler implements RequestStreamHandler {
           .metadata(Collections.singletonMap("exclude-lambda", "true"))
           .build();
 
-      s3Client.putObject(putObjectRequest, RequestBody.fromBytes(
-          Watermark.watermarkImage(objectData,
-              extension.substring(extension.lastIndexOf("/") + 1))));
+      s3Client.putObject(putObjectRequest, RequestBody.fromBytes(watermarkedImage));
       context.getLogger().log("Watermark has been added." + "\n");
     }
     var request = PublishRequest
@@ -137,6 +148,25 @@ public class ServiceHandler implements RequestStreamHandler {
 
   }
 
+  // the thumbnails go first, so they are in place by the time the image is marked as processed
+  // and its link is published
+  private void putThumbnails(S3Client s3Client, String objectKey, byte[] imageData,
+      String contentType, Context context) throws IOException {
+    var extension = contentType.substring(contentType.lastIndexOf("/") + 1);
+    for (var width : Thumbnail.widths()) {
+      var putObjectRequest = PutObjectRequest.builder()
+          .bucket(BUCKET_NAME)
+          .key(Thumbnail.thumbnailKey(objectKey, width))
+          .contentType(contentType)
+          .metadata(Collections.singletonMap("exclude-lambda", "true"))
+          .build();
+
+      s3Client.putObject(putObjectRequest,
+          RequestBody.fromBytes(Thumbnail.resize(imageData, width, extension)));
+    }
+    context.getLogger().log("Thumbnails have been added." + "\n");
+  }
+
   private String getObjectKey(InputStream inputStream, Context context) {
     try {
       List<String> keys = JsonPath.read(inputStream, "$.Records[*].s3.object.key");
@@ -0,0 +1,49 @@
+package dev.ancaghenade.shipmentpicturelambdavalidator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import javax.imageio.ImageIO;
+import net.coobird.thumbnailator.Thumbnails;
+
+// downscaled copies of a processed image, stored next to it as
+// "<shipmentId>/thumbnails/<width>/<fileName>" for "<shipmentId>/<fileName>";
+// the app picks one of them by the width a client asks for
+public class Thumbnail {
+
+  private static final String THUMBNAILS = "thumbnails";
+  private static final String DEFAULT_WIDTHS = "160,320,640";
+
+  static List<Integer> widths() {
+    return Arrays.stream(Objects.requireNonNullElse(System.getenv("THUMBNAIL_WIDTHS"),
+            DEFAULT_WIDTHS).split(","))
+        .map(String::trim)
+        .map(Integer::parseInt)
+        .toList();
+  }
+
+  static String thumbnailKey(String objectKey, int width) {
+    var separator = objectKey.lastIndexOf("/");
+    return objectKey.substring(0, separator + 1) + THUMBNAILS + "/" + width + "/"
+        + objectKey.substring(separator + 1);
+  }
+
+  static boolean isThumbnailKey(String objectKey) {
+    return objectKey.contains("/" + THUMBNAILS + "/");
+  }
+
+  // images narrower than the width are only re-encoded, never scaled up
+  static byte[] resize(byte[] objectData, int width, String extension) throws IOException {
+    var originalImage = ImageIO.read(new ByteArrayInputStream(objectData));
+    var baos = new ByteArrayOutputStream();
+    Thumbnails.of(originalImage)
+        .width(Math.min(width, originalImage.getWidth()))
+        .outputFormat(extension)
+        .toOutputStream(baos);
+    baos.close();
+    return baos.toByteArray();
+  }
+}
@@ -0,0 +1,65 @@
+package dev.ancaghenade.shipmentpicturelambdavalidator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+
+class ThumbnailTest {
+
+  private static final String KEY = "3317ac4f-1f9b-4bab-a974-4aa9876d5547/cat.jpg";
+
+  @Test
+  void testDefaultWidths() {
+    // THUMBNAIL_WIDTHS is not set when the tests run
+    assertEquals(List.of(160, 320, 640), Thumbnail.widths());
+  }
+
+  @Test
+  void testThumbnailKey() {
+    assertEquals("3317ac4f-1f9b-4bab-a974-4aa9876d5547/thumbnails/320/cat.jpg",
+        Thumbnail.thumbnailKey(KEY, 320));
+    assertEquals("thumbnails/160/cat.jpg", Thumbnail.thumbnailKey("cat.jpg", 160));
+  }
+
+  @Test
+  void testIsThumbnailKey() {
+    assertTrue(Thumbnail.isThumbnailKey(Thumbnail.thumbnailKey(KEY, 640)));
+    assertFalse(Thumbnail.isThumbnailKey(KEY));
+    assertFalse(Thumbnail.isThumbnailKey("3317ac4f-1f9b-4bab-a974-4aa9876d5547/thumbnails.jpg"));
+  }
+
+  @Test
+  void testResizeKeepsAspectRatio() throws IOException {
+    var thumbnail = read(Thumbnail.resize(image(800, 400), 160, "png"));
+
+    assertEquals(160, thumbnail.getWidth());
+    assertEquals(80, thumbnail.getHeight());
+  }
+
+  @Test
+  void testResizeDoesNotScaleUp() throws IOException {
+    var thumbnail = read(Thumbnail.resize(image(100, 50), 640, "png"));
+
+    assertEquals(100, thumbnail.getWidth());
+    assertEquals(50, thumbnail.getHeight());
+  }
+
+  private static byte[] image(int width, int height) throws IOException {
+    var baos = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", baos);
+    return baos.toByteArray();
+  }
+
+  private static BufferedImage read(byte[] data) throws IOException {
+    return ImageIO.read(new ByteArrayInputStream(data));
+  }
+
+}
@@ -1,9 +1,12 @@
 package dev.ancaghenade.shipmentlistdemo.config;
 
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
 
 public abstract class AWSClientConfig {
 
@@ -16,8 +19,22 @@ public abstract class AWSClientConfig {
   @Value("${aws.region}")
   protected String awsRegion;
 
+  @Value("${aws.http.api-call-timeout:30s}")
+  protected Duration apiCallTimeout;
+
+  @Value("${aws.http.api-call-attempt-timeout:10s}")
+  protected Duration apiCallAttemptTimeout;
+
+  @Autowired
+  protected AwsHttpTransport awsHttpTransport;
+
   protected AwsCredentialsProvider amazonAWSCredentialsProvider() {
     return StaticCredentialsProvider.create(AwsBasicCredentials.create(awsAccessKey, awsSecretKey));
   }
 
+  protected ClientOverrideConfiguration clientOverrideConfiguration(String clientName) {
+    return awsHttpTransport.overrideConfiguration(clientName, apiCallTimeout,
+        apiCallAttemptTimeout);
+  }
+
 }
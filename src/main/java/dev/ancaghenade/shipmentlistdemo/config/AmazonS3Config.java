@@ -1,12 +1,18 @@
 package dev.ancaghenade.shipmentlistdemo.config;
 
-
+import dev.ancaghenade.shipmentlistdemo.util.VirtualThreads;
 import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 @Configuration
 public class AmazonS3Config extends AWSClientConfig {
@@ -14,13 +20,73 @@ public class AmazonS3Config extends AWSClientConfig {
   @Value("${aws.s3.endpoint}")
   private String awsS3EndPoint;
 
+  // object transfers run much longer than the other service calls
+  @Value("${aws.s3.api-call-timeout:5m}")
+  private Duration s3ApiCallTimeout;
+
+  @Value("${aws.s3.api-call-attempt-timeout:2m}")
+  private Duration s3ApiCallAttemptTimeout;
+
+  @Value("${aws.s3.multipart.concurrency:4}")
+  private int multipartConcurrency;
+
+  @Value("${shipment.image-cleanup.concurrency:4}")
+  private int cleanupConcurrency;
+
+  @Value("${shipment.threads.virtual:false}")
+  private boolean virtualThreads;
+
   @Bean
   public S3Client s3() {
     return S3Client.builder()
         .region(Region.of(awsRegion))
         .credentialsProvider(amazonAWSCredentialsProvider())
+        .httpClientBuilder(awsHttpTransport.httpClientBuilder())
+        .overrideConfiguration(s3OverrideConfiguration("s3"))
+        .endpointOverride(URI.create(awsS3EndPoint))
+        .build();
+  }
+
+  @Bean
+  public S3AsyncClient s3Async() {
+    return S3AsyncClient.builder()
+        .region(Region.of(awsRegion))
+        .credentialsProvider(amazonAWSCredentialsProvider())
+        .httpClientBuilder(awsHttpTransport.asyncHttpClientBuilder())
+        .overrideConfiguration(s3OverrideConfiguration("s3-async"))
         .endpointOverride(URI.create(awsS3EndPoint))
         .build();
   }
 
-}
\ No newline at end of file
+  // signs URLs offline, with the same credentials and endpoint as the clients
+  @Bean
+  public S3Presigner s3Presigner() {
+    return S3Presigner.builder()
+        .region(Region.of(awsRegion))
+        .credentialsProvider(amazonAWSCredentialsProvider())
+        .endpointOverride(URI.create(awsS3EndPoint))
+        .build();
+  }
+
+  // sends the parts of multipart uploads; each upload has at most aws.s3.multipart.concurrency
+  // parts in flight, the pool spreads them across all running uploads
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService s3UploadExecutor() {
+    return virtualThreads ? VirtualThreads.newExecutor()
+        : Executors.newFixedThreadPool(multipartConcurrency * 2);
+  }
+
+  // deletes the batches of image cleanups; each cleanup has at most
+  // shipment.image-cleanup.concurrency batches in flight, the pool is shared by all of them
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService s3CleanupExecutor() {
+    return virtualThreads ? VirtualThreads.newExecutor()
+        : Executors.newFixedThreadPool(cleanupConcurrency);
+  }
+
+  private ClientOverrideConfiguration s3OverrideConfiguration(String clientName) {
+    return awsHttpTransport.overrideConfiguration(clientName, s3ApiCallTimeout,
+        s3ApiCallAttemptTimeout);
+  }
+
+}
@@ -0,0 +1,27 @@
+package dev.ancaghenade.shipmentlistdemo.config;
+
+import java.net.URI;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sns.SnsClient;
+
+@Configuration
+public class AmazonSNSConfig extends AWSClientConfig {
+
+  @Value("${aws.sns.endpoint}")
+  private String awsSnsEndPoint;
+
+  @Bean
+  public SnsClient snsClient() {
+    return SnsClient.builder()
+        .endpointOverride(URI.create(awsSnsEndPoint))
+        .credentialsProvider(amazonAWSCredentialsProvider())
+        .region(Region.of(awsRegion))
+        .httpClientBuilder(awsHttpTransport.httpClientBuilder())
+        .overrideConfiguration(clientOverrideConfiguration("sns"))
+        .build();
+  }
+
+}
@@ -1,6 +1,9 @@
 package dev.ancaghenade.shipmentlistdemo.config;
 
+import dev.ancaghenade.shipmentlistdemo.util.VirtualThreads;
 import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.Executor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -13,13 +16,34 @@ public class AmazonSQSConfig extends AWSClientConfig {
   @Value("${aws.sqs.endpoint}")
   private String awsSqsEndPoint;
 
+  // receives are long polls, so single attempts take longer than the default allows
+  @Value("${aws.sqs.api-call-timeout:60s}")
+  private Duration sqsApiCallTimeout;
+
+  @Value("${aws.sqs.api-call-attempt-timeout:30s}")
+  private Duration sqsApiCallAttemptTimeout;
+
+  @Value("${shipment.threads.virtual:false}")
+  private boolean virtualThreads;
+
   @Bean
   public SqsAsyncClient sqsClient() {
     return SqsAsyncClient.builder()
         .endpointOverride(URI.create(awsSqsEndPoint))
         .credentialsProvider(amazonAWSCredentialsProvider())
         .region(Region.of(awsRegion))
+        .httpClientBuilder(awsHttpTransport.asyncHttpClientBuilder())
+        .overrideConfiguration(awsHttpTransport.overrideConfiguration("sqs", sqsApiCallTimeout,
+            sqsApiCallAttemptTimeout))
         .build();
   }
 
+  // the listener container only accepts its own platform threads, so with virtual threads
+  // listeners hand their work off to this executor and complete the returned future;
+  // otherwise the work runs right away on the container thread
+  @Bean
+  public Executor messageListenerExecutor() {
+    return virtualThreads ? VirtualThreads.newExecutor() : Runnable::run;
+  }
+
 }
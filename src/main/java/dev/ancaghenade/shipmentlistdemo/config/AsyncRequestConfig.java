@@ -0,0 +1,41 @@
+package dev.ancaghenade.shipmentlistdemo.config;
+
+import dev.ancaghenade.shipmentlistdemo.util.VirtualThreads;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.task.TaskExecutorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// Boot only sets up its applicationTaskExecutor while there is no other Executor bean, and the
+// DynamoDB, S3, SQS and SSE executors are such beans; without this one CompletableFuture and
+// StreamingResponseBody results would be handled on a new thread each (SimpleAsyncTaskExecutor)
+@Configuration
+public class AsyncRequestConfig implements WebMvcConfigurer {
+
+  @Value("${shipment.threads.virtual:false}")
+  private boolean virtualThreads;
+
+  private final TaskExecutorBuilder taskExecutorBuilder;
+
+  public AsyncRequestConfig(TaskExecutorBuilder taskExecutorBuilder) {
+    this.taskExecutorBuilder = taskExecutorBuilder;
+  }
+
+  // sized through spring.task.execution.pool.*, as Boot's own would be
+  @Bean(name = "applicationTaskExecutor")
+  public AsyncTaskExecutor applicationTaskExecutor() {
+    return virtualThreads ? new TaskExecutorAdapter(VirtualThreads.newExecutor())
+        : taskExecutorBuilder.build();
+  }
+
+  // used for StreamingResponseBody and other async request processing
+  @Override
+  public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+    configurer.setTaskExecutor(applicationTaskExecutor());
+  }
+
+}
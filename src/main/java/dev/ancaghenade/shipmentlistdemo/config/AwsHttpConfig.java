@@ -0,0 +1,39 @@
+package dev.ancaghenade.shipmentlistdemo.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class AwsHttpConfig {
+
+  @Value("${aws.http.transport:apache}")
+  private AwsHttpTransport.Profile transport;
+
+  @Value("${aws.http.max-connections:50}")
+  private int maxConnections;
+
+  @Value("${aws.http.connection-timeout:2s}")
+  private Duration connectionTimeout;
+
+  @Value("${aws.http.socket-timeout:30s}")
+  private Duration socketTimeout;
+
+  @Value("${aws.http.connection-acquisition-timeout:5s}")
+  private Duration connectionAcquisitionTimeout;
+
+  @Value("${aws.http.connection-max-idle-time:60s}")
+  private Duration connectionMaxIdleTime;
+
+  @Value("${aws.http.tcp-keep-alive-interval:30s}")
+  private Duration tcpKeepAliveInterval;
+
+  @Bean
+  public AwsHttpTransport awsHttpTransport(MeterRegistry meterRegistry) {
+    return new AwsHttpTransport(transport, maxConnections, connectionTimeout, socketTimeout,
+        connectionAcquisitionTimeout, connectionMaxIdleTime, tcpKeepAliveInterval, meterRegistry);
+  }
+
+}
@@ -0,0 +1,147 @@
+package dev.ancaghenade.shipmentlistdemo.config;
+
+import static java.lang.String.format;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.crt.AwsCrtAsyncHttpClient;
+import software.amazon.awssdk.http.crt.AwsCrtHttpClient;
+import software.amazon.awssdk.http.crt.TcpKeepAliveConfiguration;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+
+// builds the HTTP layer of the AWS SDK clients; every client gets its own connection pool,
+// so large S3 transfers cannot starve DynamoDB calls of connections
+public class AwsHttpTransport {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AwsHttpTransport.class);
+  // the JDK's keep-alive cache holds this many idle connections per host unless told otherwise
+  private static final int DEFAULT_URL_CONNECTION_POOL_SIZE = 5;
+
+  public enum Profile {
+    // Apache for blocking clients, Netty for async ones
+    APACHE,
+    // the JDK's HttpURLConnection for blocking clients, Netty for async ones; the pool of
+    // HttpURLConnection is the JVM's, sized with -Dhttp.maxConnections at startup
+    URL_CONNECTION,
+    // the AWS Common Runtime for both
+    CRT
+  }
+
+  private final Profile profile;
+  private final int maxConnections;
+  private final Duration connectionTimeout;
+  private final Duration socketTimeout;
+  private final Duration connectionAcquisitionTimeout;
+  private final Duration connectionMaxIdleTime;
+  private final Duration tcpKeepAliveInterval;
+  private final MeterRegistry meterRegistry;
+
+  // a zero tcpKeepAliveInterval turns TCP keep-alive off
+  public AwsHttpTransport(Profile profile, int maxConnections, Duration connectionTimeout,
+      Duration socketTimeout, Duration connectionAcquisitionTimeout,
+      Duration connectionMaxIdleTime, Duration tcpKeepAliveInterval,
+      MeterRegistry meterRegistry) {
+    this.profile = profile;
+    this.maxConnections = maxConnections;
+    this.connectionTimeout = connectionTimeout;
+    this.socketTimeout = socketTimeout;
+    this.connectionAcquisitionTimeout = connectionAcquisitionTimeout;
+    this.connectionMaxIdleTime = connectionMaxIdleTime;
+    this.tcpKeepAliveInterval = tcpKeepAliveInterval;
+    this.meterRegistry = meterRegistry;
+    if (profile == Profile.URL_CONNECTION) {
+      warnOnUrlConnectionPoolSize();
+    }
+  }
+
+  public SdkHttpClient.Builder<?> httpClientBuilder() {
+    switch (profile) {
+      case URL_CONNECTION:
+        return UrlConnectionHttpClient.builder()
+            .connectionTimeout(connectionTimeout)
+            .socketTimeout(socketTimeout);
+      case CRT:
+        return AwsCrtHttpClient.builder()
+            .maxConcurrency(maxConnections)
+            .connectionTimeout(connectionTimeout)
+            .connectionMaxIdleTime(connectionMaxIdleTime)
+            .tcpKeepAliveConfiguration(crtTcpKeepAlive());
+      default:
+        return ApacheHttpClient.builder()
+            .maxConnections(maxConnections)
+            .connectionTimeout(connectionTimeout)
+            .socketTimeout(socketTimeout)
+            .connectionAcquisitionTimeout(connectionAcquisitionTimeout)
+            .connectionMaxIdleTime(connectionMaxIdleTime)
+            .useIdleConnectionReaper(true)
+            .tcpKeepAlive(isTcpKeepAlive());
+    }
+  }
+
+  public SdkAsyncHttpClient.Builder<?> asyncHttpClientBuilder() {
+    if (profile == Profile.CRT) {
+      return AwsCrtAsyncHttpClient.builder()
+          .maxConcurrency(maxConnections)
+          .connectionTimeout(connectionTimeout)
+          .connectionMaxIdleTime(connectionMaxIdleTime)
+          .tcpKeepAliveConfiguration(crtTcpKeepAlive());
+    }
+    return NettyNioAsyncHttpClient.builder()
+        .maxConcurrency(maxConnections)
+        .connectionTimeout(connectionTimeout)
+        .readTimeout(socketTimeout)
+        .writeTimeout(socketTimeout)
+        .connectionAcquisitionTimeout(connectionAcquisitionTimeout)
+        .connectionMaxIdleTime(connectionMaxIdleTime)
+        .useIdleConnectionReaper(true)
+        .tcpKeepAlive(isTcpKeepAlive());
+  }
+
+  // the call timeout covers all retries, the attempt timeout a single HTTP request
+  public ClientOverrideConfiguration overrideConfiguration(String clientName,
+      Duration apiCallTimeout, Duration apiCallAttemptTimeout) {
+    return ClientOverrideConfiguration.builder()
+        .apiCallTimeout(apiCallTimeout)
+        .apiCallAttemptTimeout(apiCallAttemptTimeout)
+        .addMetricPublisher(new HttpPoolMetricPublisher(meterRegistry, clientName))
+        .build();
+  }
+
+  // HttpURLConnection pools through the JDK's keep-alive cache, which is shared by the whole JVM
+  // and reads its size once; it is left alone here, a differing size is only reported
+  private void warnOnUrlConnectionPoolSize() {
+    var property = System.getProperty("http.maxConnections");
+    int poolSize;
+    try {
+      poolSize = property != null ? Integer.parseInt(property) : DEFAULT_URL_CONNECTION_POOL_SIZE;
+    } catch (NumberFormatException e) {
+      poolSize = DEFAULT_URL_CONNECTION_POOL_SIZE;
+    }
+    if (poolSize != maxConnections) {
+      LOGGER.warn(format("The url-connection transport keeps %d connections per host, not the "
+              + "configured %d; start the JVM with -Dhttp.maxConnections=%d to change it", poolSize,
+          maxConnections, maxConnections));
+    }
+  }
+
+  private boolean isTcpKeepAlive() {
+    return !tcpKeepAliveInterval.isZero();
+  }
+
+  private TcpKeepAliveConfiguration crtTcpKeepAlive() {
+    if (!isTcpKeepAlive()) {
+      return null;
+    }
+    return TcpKeepAliveConfiguration.builder()
+        .keepAliveInterval(tcpKeepAliveInterval)
+        .keepAliveTimeout(connectionTimeout)
+        .build();
+  }
+}
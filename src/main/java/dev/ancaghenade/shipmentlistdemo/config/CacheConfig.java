@@ -0,0 +1,53 @@
+package dev.ancaghenade.shipmentlistdemo.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.ancaghenade.shipmentlistdemo.entity.Shipment;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CacheConfig {
+
+  @Value("${shipment.cache.maximum-size:10000}")
+  private long shipmentCacheMaximumSize;
+
+  @Value("${shipment.cache.ttl:5m}")
+  private Duration shipmentCacheTtl;
+
+  @Value("${shipment.image.thumbnail-miss-cache.maximum-size:10000}")
+  private long thumbnailMissCacheMaximumSize;
+
+  @Value("${shipment.image.thumbnail-miss-cache.ttl:10m}")
+  private Duration thumbnailMissCacheTtl;
+
+  // hit, miss and eviction counts are published as cache.* metrics tagged with cache=shipment
+  @Bean
+  public Cache<String, Shipment> shipmentCache(MeterRegistry meterRegistry) {
+    Cache<String, Shipment> cache = Caffeine.newBuilder()
+        .maximumSize(shipmentCacheMaximumSize)
+        .expireAfterWrite(shipmentCacheTtl)
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "shipment");
+    return cache;
+  }
+
+  // keys of images found without thumbnails, these are sent whole without asking S3 for a
+  // thumbnail first; entries expire, an image still waiting for the Lambda gets them later
+  @Bean
+  public Cache<String, Boolean> thumbnailMissCache(MeterRegistry meterRegistry) {
+    Cache<String, Boolean> cache = Caffeine.newBuilder()
+        .maximumSize(thumbnailMissCacheMaximumSize)
+        .expireAfterWrite(thumbnailMissCacheTtl)
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "thumbnail-miss");
+    return cache;
+  }
+
+}
@@ -1,15 +1,22 @@
 package dev.ancaghenade.shipmentlistdemo.config;
 
 import dev.ancaghenade.shipmentlistdemo.entity.Shipment;
+import dev.ancaghenade.shipmentlistdemo.util.VirtualThreads;
 import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
 
 @Configuration
 public class DynamoDBConfig extends AWSClientConfig {
@@ -17,23 +24,93 @@ public class DynamoDBConfig extends AWSClientConfig {
   @Value("${aws.dynamodb.endpoint}")
   private String awsDynamoDBEndPoint;
 
+  @Value("${aws.dynamodb.streams.endpoint:${aws.dynamodb.endpoint}}")
+  private String awsDynamoDBStreamsEndPoint;
+
+  @Value("${aws.dynamodb.scan.concurrency:4}")
+  private int scanConcurrency;
+
+  @Value("${aws.dynamodb.batch.concurrency:4}")
+  private int batchConcurrency;
+
+  @Value("${shipment.threads.virtual:false}")
+  private boolean virtualThreads;
+
   @Bean
-  public DynamoDbEnhancedClient dynamoDbClient() {
-    DynamoDbClient dynamoDbClient = DynamoDbClient.builder()
+  public DynamoDbClient dynamoDbStandardClient() {
+    return DynamoDbClient.builder()
         .region(Region.of(awsRegion))
         .credentialsProvider(amazonAWSCredentialsProvider())
+        .httpClientBuilder(awsHttpTransport.httpClientBuilder())
+        .overrideConfiguration(clientOverrideConfiguration("dynamodb"))
         .endpointOverride(URI.create(awsDynamoDBEndPoint))
         .build();
+  }
 
+  @Bean
+  public DynamoDbEnhancedClient dynamoDbClient(DynamoDbClient dynamoDbStandardClient) {
     // using the enhanced client for mapping classes to tables
     return DynamoDbEnhancedClient.builder()
-        .dynamoDbClient(dynamoDbClient)
+        .dynamoDbClient(dynamoDbStandardClient)
+        .build();
+  }
+
+  @Bean
+  public DynamoDbAsyncClient dynamoDbAsyncClient() {
+    return DynamoDbAsyncClient.builder()
+        .region(Region.of(awsRegion))
+        .credentialsProvider(amazonAWSCredentialsProvider())
+        .httpClientBuilder(awsHttpTransport.asyncHttpClientBuilder())
+        .overrideConfiguration(clientOverrideConfiguration("dynamodb-async"))
+        .endpointOverride(URI.create(awsDynamoDBEndPoint))
         .build();
   }
+
+  @Bean
+  public DynamoDbEnhancedAsyncClient dynamoDbEnhancedAsyncClient(
+      DynamoDbAsyncClient dynamoDbAsyncClient) {
+    return DynamoDbEnhancedAsyncClient.builder()
+        .dynamoDbClient(dynamoDbAsyncClient)
+        .build();
+  }
+
+  @Bean
+  public DynamoDbStreamsClient dynamoDbStreamsClient() {
+    return DynamoDbStreamsClient.builder()
+        .region(Region.of(awsRegion))
+        .credentialsProvider(amazonAWSCredentialsProvider())
+        .httpClientBuilder(awsHttpTransport.httpClientBuilder())
+        .overrideConfiguration(clientOverrideConfiguration("dynamodb-streams"))
+        .endpointOverride(URI.create(awsDynamoDBStreamsEndPoint))
+        .build();
+  }
+
   @Bean
   public DynamoDbTable shipmentTable(DynamoDbEnhancedClient dynamoDbClient) {
     return dynamoDbClient.table("shipment", TableSchema.fromBean(Shipment.class));
   }
 
+  @Bean
+  public DynamoDbAsyncTable<Shipment> shipmentAsyncTable(
+      DynamoDbEnhancedAsyncClient dynamoDbEnhancedAsyncClient) {
+    return dynamoDbEnhancedAsyncClient.table("shipment", TableSchema.fromBean(Shipment.class));
+  }
+
+  // bounds how many scan segments are read at the same time, across all running scans;
+  // with virtual threads every segment gets its own thread and the table's throughput is the limit
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService dynamoDbScanExecutor() {
+    return virtualThreads ? VirtualThreads.newExecutor()
+        : Executors.newFixedThreadPool(scanConcurrency);
+  }
+
+  // bounds how many batch requests are in flight at the same time;
+  // with virtual threads throttled requests are retried with backoff instead of queueing here
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService dynamoDbBatchExecutor() {
+    return virtualThreads ? VirtualThreads.newExecutor()
+        : Executors.newFixedThreadPool(batchConcurrency);
+  }
+
 
 }
@@ -0,0 +1,20 @@
+package dev.ancaghenade.shipmentlistdemo.config;
+
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+
+@Configuration
+public class HttpCacheConfig {
+
+  // shipment responses get an ETag from a hash of their body and a matching If-None-Match
+  // is answered with 304 and no body; streamed responses opt out in the controller
+  @Bean
+  public FilterRegistrationBean<ShallowEtagHeaderFilter> shipmentEtagFilter() {
+    var registration = new FilterRegistrationBean<>(new ShallowEtagHeaderFilter());
+    registration.addUrlPatterns("/api/shipment", "/api/shipment/*");
+    return registration;
+  }
+
+}
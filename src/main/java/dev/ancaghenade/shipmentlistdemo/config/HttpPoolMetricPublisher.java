@@ -0,0 +1,70 @@
+package dev.ancaghenade.shipmentlistdemo.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+// publishes the connection pool state the SDK reports with every request as aws.http.pool.* metrics,
+// tagged with the client; a pool is saturated when pending stays above zero
+public class HttpPoolMetricPublisher implements MetricPublisher {
+
+  private static final String HTTP_CLIENT_METRICS = "HttpClient";
+
+  private final AtomicLong maxConcurrency;
+  private final AtomicLong leasedConcurrency;
+  private final AtomicLong availableConcurrency;
+  private final AtomicLong pendingAcquires;
+  private final Timer acquireTimer;
+
+  public HttpPoolMetricPublisher(MeterRegistry meterRegistry, String clientName) {
+    var tags = Tags.of("client", clientName);
+    this.maxConcurrency = meterRegistry.gauge("aws.http.pool.max", tags, new AtomicLong());
+    this.leasedConcurrency = meterRegistry.gauge("aws.http.pool.leased", tags, new AtomicLong());
+    this.availableConcurrency = meterRegistry.gauge("aws.http.pool.available", tags,
+        new AtomicLong());
+    this.pendingAcquires = meterRegistry.gauge("aws.http.pool.pending", tags, new AtomicLong());
+    this.acquireTimer = Timer.builder("aws.http.pool.acquire")
+        .description("Time spent waiting for a connection from the pool")
+        .tags(tags)
+        .register(meterRegistry);
+  }
+
+  @Override
+  public void publish(MetricCollection metricCollection) {
+    httpClientMetrics(metricCollection).forEach(this::record);
+  }
+
+  @Override
+  public void close() {
+    // nothing to flush, the meters belong to the registry
+  }
+
+  private void record(MetricCollection httpMetrics) {
+    lastValue(httpMetrics, HttpMetric.MAX_CONCURRENCY).ifPresent(maxConcurrency::set);
+    lastValue(httpMetrics, HttpMetric.LEASED_CONCURRENCY).ifPresent(leasedConcurrency::set);
+    lastValue(httpMetrics, HttpMetric.AVAILABLE_CONCURRENCY).ifPresent(availableConcurrency::set);
+    lastValue(httpMetrics, HttpMetric.PENDING_CONCURRENCY_ACQUIRES).ifPresent(pendingAcquires::set);
+    httpMetrics.metricValues(HttpMetric.CONCURRENCY_ACQUIRE_DURATION).forEach(acquireTimer::record);
+  }
+
+  // the HTTP metrics sit below the call and attempt collections, one per attempt
+  private static Stream<MetricCollection> httpClientMetrics(MetricCollection collection) {
+    return Stream.concat(
+        Stream.of(collection).filter(c -> HTTP_CLIENT_METRICS.equals(c.name())),
+        collection.children().stream().flatMap(HttpPoolMetricPublisher::httpClientMetrics));
+  }
+
+  private static Optional<Integer> lastValue(MetricCollection collection,
+      SdkMetric<Integer> metric) {
+    var values = collection.metricValues(metric);
+    return values.isEmpty() ? Optional.empty()
+        : Optional.of(values.get(values.size() - 1));
+  }
+}
@@ -0,0 +1,26 @@
+package dev.ancaghenade.shipmentlistdemo.config;
+
+import dev.ancaghenade.shipmentlistdemo.util.VirtualThreads;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class SseConfig {
+
+  @Value("${shipment.sse.threads:4}")
+  private int sseThreads;
+
+  @Value("${shipment.threads.virtual:false}")
+  private boolean virtualThreads;
+
+  // writes server-sent events to the clients; a write to a slow client blocks its thread until
+  // the socket takes the data, so with platform threads a few slow clients can hold up the rest
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService sseExecutor() {
+    return virtualThreads ? VirtualThreads.newExecutor()
+        : Executors.newFixedThreadPool(sseThreads);
+  }
+}
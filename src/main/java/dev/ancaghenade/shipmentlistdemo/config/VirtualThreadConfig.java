@@ -0,0 +1,40 @@
+package dev.ancaghenade.shipmentlistdemo.config;
+
+import dev.ancaghenade.shipmentlistdemo.util.VirtualThreads;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// shipment.threads.virtual=true runs blocking work on virtual threads, so the number of requests
+// in flight is bounded by what DynamoDB and S3 accept rather than by the size of a thread pool;
+// the DynamoDB executors, the SQS listener executor and the async request executor switch over
+// in their own configurations
+@Configuration
+@ConditionalOnProperty(name = "shipment.threads.virtual", havingValue = "true")
+public class VirtualThreadConfig {
+
+  @Value("${shipment.threads.pinned-threshold:20ms}")
+  private Duration pinnedThreshold;
+
+  @Bean(destroyMethod = "shutdown")
+  public ExecutorService requestExecutor() {
+    return VirtualThreads.newExecutor();
+  }
+
+  // every servlet request gets its own virtual thread instead of a Tomcat worker
+  @Bean
+  public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+    return protocolHandler -> protocolHandler.setExecutor(requestExecutor());
+  }
+
+  @Bean(initMethod = "start", destroyMethod = "stop")
+  public VirtualThreadPinningMonitor virtualThreadPinningMonitor(MeterRegistry meterRegistry) {
+    return new VirtualThreadPinningMonitor(meterRegistry, pinnedThreshold);
+  }
+
+}
@@ -0,0 +1,56 @@
+package dev.ancaghenade.shipmentlistdemo.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// reports virtual threads that block while pinned to their carrier (inside synchronized blocks
+// or native frames), which takes the carrier away from all other virtual threads meanwhile;
+// shows up as the shipment.threads.pinned counter and a warning with the blocking stack
+public class VirtualThreadPinningMonitor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+  private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+  private static final int MAX_FRAMES = 12;
+
+  private final RecordingStream recordingStream = new RecordingStream();
+  private final Counter pinnedCounter;
+
+  public VirtualThreadPinningMonitor(MeterRegistry meterRegistry, Duration threshold) {
+    this.pinnedCounter = Counter.builder("shipment.threads.pinned")
+        .description("Virtual threads that blocked while pinned to their carrier thread")
+        .register(meterRegistry);
+    recordingStream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+    recordingStream.onEvent(PINNED_EVENT, this::report);
+  }
+
+  public void start() {
+    recordingStream.startAsync();
+  }
+
+  public void stop() {
+    recordingStream.close();
+  }
+
+  private void report(RecordedEvent event) {
+    pinnedCounter.increment();
+    var stackTrace = Objects.isNull(event.getStackTrace()) ? ""
+        : event.getStackTrace().getFrames().stream()
+            .limit(MAX_FRAMES)
+            .map(VirtualThreadPinningMonitor::describe)
+            .collect(Collectors.joining(""));
+    LOGGER.warn("Virtual thread pinned for {} ms{}", event.getDuration().toMillis(), stackTrace);
+  }
+
+  private static String describe(RecordedFrame frame) {
+    return "\n\tat " + frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+        + "(line " + frame.getLineNumber() + ")";
+  }
+}
@@ -0,0 +1,41 @@
+package dev.ancaghenade.shipmentlistdemo.controller;
+
+import dev.ancaghenade.shipmentlistdemo.service.ShipmentService;
+import io.awspring.cloud.sqs.annotation.SqsListener;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+@Service
+public class ImageCleanupReceiver {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ImageCleanupReceiver.class);
+
+  private final ShipmentService shipmentService;
+  private final Executor messageListenerExecutor;
+
+  @Autowired
+  public ImageCleanupReceiver(ShipmentService shipmentService,
+      @Qualifier("messageListenerExecutor") Executor messageListenerExecutor) {
+    this.shipmentService = shipmentService;
+    this.messageListenerExecutor = messageListenerExecutor;
+  }
+
+  // a failed cleanup is not acknowledged, the message comes back once its visibility timeout
+  // has passed and the objects left over are deleted then
+  @SqsListener(value = "${shipment.image-cleanup.queue:shipment_image_cleanup_queue}")
+  public CompletableFuture<Void> cleanUpImages(String request) {
+    return CompletableFuture.runAsync(() -> {
+      LOGGER.info("Image cleanup request " + request);
+      var obj = new JSONObject(request);
+      shipmentService.deleteShipmentImages(obj.getString("shipmentId"),
+          Instant.parse(obj.getString("deletedAt")));
+    }, messageListenerExecutor);
+  }
+}
@@ -1,17 +1,28 @@
 package dev.ancaghenade.shipmentlistdemo.controller;
 
+import static java.lang.String.format;
+
+import dev.ancaghenade.shipmentlistdemo.service.ClusterEventRelay;
 import dev.ancaghenade.shipmentlistdemo.service.ShipmentService;
+import dev.ancaghenade.shipmentlistdemo.service.SseBroadcaster;
 import io.awspring.cloud.sqs.annotation.SqsListener;
-import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
@@ -20,78 +31,96 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 public class MessageReceiver {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(MessageReceiver.class);
-  private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
 
   private final ShipmentService shipmentService;
+  private final SseBroadcaster sseBroadcaster;
+  private final ClusterEventRelay clusterEventRelay;
+  private final Executor messageListenerExecutor;
 
   @Autowired
-  public MessageReceiver(ShipmentService shipmentService) {
+  public MessageReceiver(ShipmentService shipmentService, SseBroadcaster sseBroadcaster,
+      ClusterEventRelay clusterEventRelay,
+      @Qualifier("messageListenerExecutor") Executor messageListenerExecutor) {
     this.shipmentService = shipmentService;
+    this.sseBroadcaster = sseBroadcaster;
+    this.clusterEventRelay = clusterEventRelay;
+    this.messageListenerExecutor = messageListenerExecutor;
   }
 
-  @SqsListener(value = "update_shipment_picture_queue")
-  public void loadMessagesFromQueue(String notification) {
-    LOGGER.info("Message from queue" + notification);
-
-    var obj = new JSONObject(notification);
-    var message = obj.getString("Message");
-    var shipmentId = message.split("/")[0];
+  // the messages of a poll come in as one batch, all acknowledged together once the returned
+  // future completes; a failed batch comes back as a whole, setting the same links again is
+  // harmless. A message that cannot be read never will be, it is skipped and acknowledged with
+  // the others
+  @SqsListener(value = "update_shipment_picture_queue",
+      maxMessagesPerPoll = "${shipment.picture-updates.max-messages-per-poll:10}",
+      pollTimeoutSeconds = "${shipment.picture-updates.poll-timeout-seconds:10}")
+  public CompletableFuture<Void> loadMessagesFromQueue(List<String> notifications) {
+    return CompletableFuture.runAsync(() -> processMessages(notifications),
+        messageListenerExecutor);
+  }
 
-    shipmentService.updateImageLink(shipmentId, message);
+  private void processMessages(List<String> notifications) {
+    LOGGER.info(format("%d messages from queue", notifications.size()));
 
-    for (var sseEmitter : emitters) {
+    // of several images uploaded for a shipment only the latest one is kept
+    Map<String, ImageUpdate> latest = new HashMap<>();
+    for (var notification : notifications) {
+      LOGGER.debug("Message from queue" + notification);
+      ImageUpdate update;
       try {
-        sseEmitter.send(
-            shipmentId);
-        sleep(sseEmitter);
-      } catch (IOException e) {
-        sseEmitter.completeWithError(e);
+        update = ImageUpdate.of(new JSONObject(notification));
+      } catch (JSONException e) {
+        LOGGER.error(format("Skipping unreadable message %s: %s", notification, e.getMessage()));
+        continue;
       }
-      sseEmitter.complete();
-      LOGGER.info("SSE emitter complete.");
+      latest.merge(update.shipmentId, update, ImageUpdate::later);
     }
+    Map<String, String> imageLinks = new HashMap<>();
+    latest.forEach((shipmentId, update) -> imageLinks.put(shipmentId, update.imageLink));
+
+    var updated = shipmentService.updateImageLinks(imageLinks);
+
+    // only this instance takes the messages off the queue, a single event for the whole batch
+    // goes to the clients of all instances; they are written to on the broadcaster's own threads
+    clusterEventRelay.publish(updated);
   }
 
+  // the connection stays open for all further events, of the given shipments or of all of them.
+  // EventSource sends the id of the last event it has seen when it reconnects on its own, a new
+  // EventSource can only pass it in the query string
   @GetMapping(value = "/push-endpoint")
   @CrossOrigin(origins = "http://localhost:3000")
-  public SseEmitter pushData() {
-
-    SseEmitter emitter = new SseEmitter(Long.MAX_VALUE);
-
-    emitter.onCompletion(() -> {
-      synchronized (emitters) {
-        emitters.remove(emitter);
-        LOGGER.info("SseEmitter is completed");
-      }
-    });
+  public SseEmitter pushData(
+      @RequestParam(value = "shipmentIds", required = false) Set<String> shipmentIds,
+      @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+      @RequestParam(value = "lastEventId", required = false) String lastEventId) {
+    return sseBroadcaster.subscribe(shipmentIds != null ? shipmentIds : Set.of(),
+        lastEventIdHeader != null ? lastEventIdHeader : lastEventId);
+  }
 
-    emitter.onTimeout(() -> {
-      synchronized (emitters) {
-        emitters.remove(emitter);
-      }
-      emitter.complete();
-      LOGGER.info("SseEmitter is timed out");
-    });
+  private static class ImageUpdate {
 
-    emitter.onError(e -> {
-      synchronized (emitters) {
-        emitters.remove(emitter);
-      }
-    });
+    private final String shipmentId;
+    private final String imageLink;
+    // ISO-8601 in UTC as set by SNS, so the strings sort by time; empty if not sent through SNS
+    private final String timestamp;
 
-    synchronized (emitters) {
-      emitters.add(emitter);
+    private ImageUpdate(String shipmentId, String imageLink, String timestamp) {
+      this.shipmentId = shipmentId;
+      this.imageLink = imageLink;
+      this.timestamp = timestamp;
     }
 
-    return emitter;
-  }
+    // the message is the key of the image, it starts with the shipment id
+    private static ImageUpdate of(JSONObject notification) {
+      var imageLink = notification.getString("Message");
+      return new ImageUpdate(imageLink.split("/")[0], imageLink,
+          notification.optString("Timestamp"));
+    }
 
-  private void sleep(SseEmitter sseEmitter) {
-    try {
-      Thread.sleep(1000);
-    } catch (InterruptedException e) {
-      e.printStackTrace();
-      sseEmitter.completeWithError(e);
+    // notifications without a time keep the order they were received in
+    private static ImageUpdate later(ImageUpdate first, ImageUpdate second) {
+      return second.timestamp.compareTo(first.timestamp) >= 0 ? second : first;
     }
   }
 }
@@ -1,64 +1,306 @@
 package dev.ancaghenade.shipmentlistdemo.controller;
 
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.ancaghenade.shipmentlistdemo.entity.PresignedImageUrl;
 import dev.ancaghenade.shipmentlistdemo.entity.Shipment;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentImage;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentPage;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentWriteResult;
 import dev.ancaghenade.shipmentlistdemo.service.ShipmentService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Stream;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("api/shipment")
 @CrossOrigin("http://localhost:3000")
 public class ShipmentController {
 
+  // flushing now and then lets the first shipments reach the client while the scan goes on
+  private static final int FLUSH_INTERVAL = 100;
+  private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+  // CacheControl has no builder method for immutable yet
+  private static final String IMMUTABLE_CACHE_CONTROL =
+      CacheControl.maxAge(Duration.ofDays(365)).cachePublic().getHeaderValue() + ", immutable";
+
   private final ShipmentService shipmentService;
+  private final ObjectMapper objectMapper;
 
   @Autowired
-  public ShipmentController(ShipmentService shipmentService) {
+  public ShipmentController(ShipmentService shipmentService, ObjectMapper objectMapper) {
     this.shipmentService = shipmentService;
+    this.objectMapper = objectMapper;
   }
 
+  // answered from the in-memory view once it is loaded, before that the whole table is scanned;
+  // either way on the async request executor rather than a Tomcat thread
   @GetMapping
-  public List<Shipment> getAllShipments() {
-    return shipmentService.getAllShipments();
+  public Callable<List<Shipment>> getAllShipments() {
+    return shipmentService::getAllShipments;
   }
 
-  @GetMapping(
-      path = "{shipmentId}/image/download", produces = MediaType.IMAGE_JPEG_VALUE)
-  public byte[] downloadShipmentImage(@PathVariable("shipmentId") String shipmentId) {
-    return shipmentService.downloadShipmentImage(shipmentId);
+  // streamed responses are not buffered to compute an ETag
+  @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamShipmentsAsNdjson(
+      HttpServletRequest request) {
+    ShallowEtagHeaderFilter.disableContentCaching(request);
+    return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_NDJSON)
+        .body(outputStream -> writeShipments(outputStream, false));
+  }
+
+  @GetMapping(params = "stream=true", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamShipmentsAsJsonArray(
+      HttpServletRequest request) {
+    ShallowEtagHeaderFilter.disableContentCaching(request);
+    return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(outputStream -> writeShipments(outputStream, true));
+  }
+
+  @GetMapping(params = "ids")
+  public CompletableFuture<List<Shipment>> getShipments(
+      @RequestParam("ids") List<String> shipmentIds) {
+    return shipmentService.getShipments(shipmentIds);
+  }
+
+  @GetMapping(params = "pageSize")
+  public CompletableFuture<ShipmentPage> getShipmentPage(@RequestParam("pageSize") int pageSize,
+      @RequestParam(value = "cursor", required = false) String cursor) {
+    return shipmentService.getShipmentPage(pageSize, cursor);
+  }
+
+  // the image behind a shipment can be replaced, so caches have to check back every time
+  @GetMapping(path = "{shipmentId}/image/download")
+  public CompletableFuture<ResponseEntity<StreamingResponseBody>> downloadShipmentImage(
+      @PathVariable("shipmentId") String shipmentId,
+      @RequestParam(value = "width", required = false) Integer width,
+      @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      HttpServletRequest request, HttpServletResponse response) {
+    ShallowEtagHeaderFilter.disableContentCaching(request);
+    return respond(shipmentService.downloadShipmentImage(shipmentId, width, range, ifNoneMatch),
+        image -> CacheControl.noCache().getHeaderValue(), request, response);
+  }
+
+  // addressed by the image link, processed images can be cached for good
+  @GetMapping(path = "{shipmentId}/image/{fileName}")
+  public CompletableFuture<ResponseEntity<StreamingResponseBody>> downloadImage(
+      @PathVariable("shipmentId") String shipmentId,
+      @PathVariable("fileName") String fileName,
+      @RequestParam(value = "width", required = false) Integer width,
+      @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      HttpServletRequest request, HttpServletResponse response) {
+    ShallowEtagHeaderFilter.disableContentCaching(request);
+    return respond(shipmentService.downloadImage(shipmentId, fileName, width, range, ifNoneMatch),
+        image -> image.isImmutable()
+            ? IMMUTABLE_CACHE_CONTROL : CacheControl.noCache().getHeaderValue(),
+        request, response);
+  }
+
+  @GetMapping("/{shipmentId}")
+  public CompletableFuture<Shipment> getShipment(@PathVariable("shipmentId") String shipmentId) {
+    return shipmentService.getShipmentById(shipmentId);
   }
 
   @DeleteMapping("/{shipmentId}")
-  public String deleteShipment(@PathVariable("shipmentId") String shipmentId) {
+  public CompletableFuture<String> deleteShipment(
+      @PathVariable("shipmentId") String shipmentId) {
     return shipmentService.deleteShipment(shipmentId);
   }
 
+  // the multipart body is read from its temporary file while it is sent to S3, which blocks;
+  // that happens on the async request executor rather than a Tomcat thread
   @PostMapping(
       path = "{shipmentId}/image/upload",
       consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
       produces = MediaType.APPLICATION_JSON_VALUE)
-  public void uploadShipmentImage(@PathVariable("shipmentId") String shipmentId,
+  public Callable<Void> uploadShipmentImage(@PathVariable("shipmentId") String shipmentId,
       @RequestParam("file") MultipartFile file) {
-    shipmentService.uploadShipmentImage(shipmentId, file);
+    return () -> {
+      shipmentService.uploadShipmentImage(shipmentId, file);
+      return null;
+    };
   }
 
+  // the image goes straight to S3 and is confirmed afterwards, its bytes never pass the app
   @PostMapping(
+      path = "{shipmentId}/image/upload-url",
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public PresignedImageUrl createImageUploadUrl(@PathVariable("shipmentId") String shipmentId,
+      @RequestParam("fileName") String fileName,
+      @RequestParam("contentType") String contentType,
+      @RequestParam("contentLength") long contentLength) {
+    return shipmentService.createImageUploadUrl(shipmentId, fileName, contentType,
+        contentLength);
+  }
+
+  @PostMapping(path = "{shipmentId}/image/confirm")
+  public void confirmImageUpload(@PathVariable("shipmentId") String shipmentId,
+      @RequestParam("imageLink") String imageLink) {
+    shipmentService.confirmImageUpload(shipmentId, imageLink);
+  }
+
+  @GetMapping(
+      path = "{shipmentId}/image/download-url",
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public CompletableFuture<PresignedImageUrl> createImageDownloadUrl(
+      @PathVariable("shipmentId") String shipmentId) {
+    return shipmentService.createImageDownloadUrl(shipmentId);
+  }
+
+  @PostMapping(
+      consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public CompletableFuture<Void> saveUpdateShipment(@RequestBody Shipment shipment) {
+    return shipmentService.saveShipment(shipment).thenApply(saved -> null);
+  }
+
+  @PatchMapping(
+      path = "{shipmentId}",
+      consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public CompletableFuture<Shipment> patchShipment(
+      @PathVariable("shipmentId") String shipmentId,
+      @RequestBody Shipment changes) {
+    return shipmentService.patchShipment(shipmentId, changes);
+  }
+
+  @PostMapping(
+      path = "batch",
       consumes = MediaType.APPLICATION_JSON_VALUE,
       produces = MediaType.APPLICATION_JSON_VALUE)
-  public void saveUpdateShipment(@RequestBody Shipment shipment) {
-    shipmentService.saveShipment(shipment);
+  public CompletableFuture<List<ShipmentWriteResult>> saveUpdateShipments(
+      @RequestBody List<Shipment> shipments) {
+    return shipmentService.saveShipments(shipments);
+  }
+
+  // Tomcat copies files to the socket with sendfile, so their bytes never pass through the JVM,
+  // but only for requests that are answered synchronously; an image already found on local disk
+  // is therefore answered right away, returning null once the response is written
+  private CompletableFuture<ResponseEntity<StreamingResponseBody>> respond(
+      CompletableFuture<ShipmentImage> download, Function<ShipmentImage, String> cacheControl,
+      HttpServletRequest request, HttpServletResponse response) {
+    if (download.isDone() && !download.isCompletedExceptionally()
+        && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+      var image = download.join();
+      if (image.getFile() != null && !image.isNotModified()) {
+        request.setAttribute(SENDFILE_FILENAME, image.getFile().toString());
+        request.setAttribute(SENDFILE_START, image.getFileOffset());
+        request.setAttribute(SENDFILE_END, image.getFileOffset() + image.getContentLength());
+        var headers = toImageResponse(image, cacheControl.apply(image)).build();
+        response.setStatus(headers.getStatusCode().value());
+        headers.getHeaders().forEach((name, values) -> values.forEach(
+            value -> response.addHeader(name, value)));
+        return null;
+      }
+    }
+    return download.thenApply(image -> {
+      if (image.isNotModified()) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+            .eTag(image.getETag())
+            .header(HttpHeaders.CACHE_CONTROL, cacheControl.apply(image))
+            .build();
+      }
+      return toImageResponse(image, cacheControl.apply(image)).body(image.getFile() != null
+          ? outputStream -> transferFile(image, outputStream)
+          : outputStream -> {
+            // transferTo copies through one fixed-size buffer
+            try (var content = image.getContent()) {
+              content.transferTo(outputStream);
+            }
+          });
+    });
+  }
+
+  // status and headers of an image, the content type is the stored one
+  private ResponseEntity.BodyBuilder toImageResponse(ShipmentImage image, String cacheControl) {
+    var response = ResponseEntity
+        .status(image.isPartial() ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+        .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+        .contentType(MediaType.parseMediaType(image.getContentType()))
+        .contentLength(image.getContentLength())
+        .header(HttpHeaders.CACHE_CONTROL, cacheControl);
+    if (image.getETag() != null) {
+      response.eTag(image.getETag());
+    }
+    if (image.isPartial()) {
+      response.header(HttpHeaders.CONTENT_RANGE, image.getContentRange());
+    }
+    return response;
+  }
+
+  private static void transferFile(ShipmentImage image, OutputStream outputStream)
+      throws IOException {
+    try (var file = FileChannel.open(image.getFile())) {
+      var target = Channels.newChannel(outputStream);
+      var position = image.getFileOffset();
+      var end = position + image.getContentLength();
+      while (position < end) {
+        position += file.transferTo(position, end - position, target);
+      }
+    }
+  }
+
+  private void writeShipments(OutputStream outputStream, boolean asJsonArray)
+      throws IOException {
+    try (Stream<Shipment> shipments = shipmentService.streamAllShipments();
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+      // NDJSON separates the documents with new lines instead of array commas
+      generator.setRootValueSeparator(asJsonArray ? null : new SerializedString("\n"));
+      if (asJsonArray) {
+        generator.writeStartArray();
+      }
+      var written = 0;
+      for (Iterator<Shipment> iterator = shipments.iterator(); iterator.hasNext(); ) {
+        generator.writeObject(iterator.next());
+        if (++written % FLUSH_INTERVAL == 1) {
+          generator.flush();
+        }
+      }
+      if (asJsonArray) {
+        generator.writeEndArray();
+      } else if (written > 0) {
+        generator.writeRaw('\n');
+      }
+    }
   }
 
 }
@@ -0,0 +1,26 @@
+package dev.ancaghenade.shipmentlistdemo.entity;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// a short-lived URL that lets the client talk to S3 directly; the request has to be sent with
+// the given method and headers, they are part of the signature
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PresignedImageUrl {
+
+  private String method;
+  private String url;
+  private Map<String, List<String>> headers;
+  private Instant expiration;
+  // the key the image is stored under, confirmed uploads become the shipment's image link
+  private String imageLink;
+
+}
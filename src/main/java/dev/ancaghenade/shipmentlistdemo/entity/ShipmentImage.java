@@ -0,0 +1,35 @@
+package dev.ancaghenade.shipmentlistdemo.entity;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// an image on its way to the client, content is read once and has to be closed;
+// without content when the client's copy is still current
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShipmentImage {
+
+  private InputStream content;
+  // set instead of content when the image is served from a local file, starting at fileOffset
+  private Path file;
+  private long fileOffset;
+  private String contentType;
+  private long contentLength;
+  // set when only the requested range is returned, e.g. "bytes 0-1023/146515"
+  private String contentRange;
+  private String eTag;
+  private boolean notModified;
+  // the content behind the key will not change anymore
+  private boolean immutable;
+
+  public boolean isPartial() {
+    return contentRange != null;
+  }
+
+}
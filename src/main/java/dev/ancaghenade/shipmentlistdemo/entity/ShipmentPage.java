@@ -0,0 +1,19 @@
+package dev.ancaghenade.shipmentlistdemo.entity;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShipmentPage {
+
+  private List<Shipment> shipments;
+  // opaque token for the next page, null once the table has been read to the end
+  private String nextCursor;
+
+}
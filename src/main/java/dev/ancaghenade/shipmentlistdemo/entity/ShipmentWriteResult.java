@@ -0,0 +1,18 @@
+package dev.ancaghenade.shipmentlistdemo.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShipmentWriteResult {
+
+  private String shipmentId;
+  private boolean written;
+  private String error;
+
+}
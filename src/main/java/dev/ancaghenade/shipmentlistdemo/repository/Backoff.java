@@ -0,0 +1,25 @@
+package dev.ancaghenade.shipmentlistdemo.repository;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// exponential backoff with full jitter, so callers retrying in parallel do not do so in lockstep
+final class Backoff {
+
+  private Backoff() {
+    throw new IllegalStateException("Utility class");
+  }
+
+  // waits up to base * 2^attempt, never more than max; false if the thread was interrupted
+  // meanwhile, the caller gives up then
+  static boolean sleep(int attempt, long baseMillis, long maxMillis) {
+    long ceiling = Math.min(maxMillis, baseMillis << attempt);
+    try {
+      TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
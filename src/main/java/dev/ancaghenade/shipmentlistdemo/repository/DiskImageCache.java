@@ -0,0 +1,371 @@
+package dev.ancaghenade.shipmentlistdemo.repository;
+
+import static java.lang.String.format;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentImage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+// processed images on local disk, bounded by their total size in bytes; Caffeine evicts the
+// ones least likely to be asked for again, by recency and frequency. Only processed images are
+// kept, they never change, so every instance can keep its own copy without invalidation.
+// A file is written under a temporary name and moved into place once complete, its name is
+// made of the hashed S3 key and the ETag, and a trailer after the image bytes describes it;
+// after a restart the index is rebuilt from the files and half written ones are removed
+@Component
+public class DiskImageCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskImageCache.class);
+  private static final String IMAGE_SUFFIX = ".img";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final int TRAILER_MAGIC = 0x53484950;
+  // evicted files may still be sent to a client, they are removed a little later
+  private static final Duration DELETE_DELAY = Duration.ofMinutes(1);
+  private static final Pattern SINGLE_RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+  private final S3StorageService s3StorageService;
+  private final boolean enabled;
+  private final Path directory;
+  private final long maxImageSize;
+  private final Cache<String, CachedFile> files;
+  // one fill at a time per key; an invalidation drops the fill of its key, so that an image
+  // read before it is not stored after it
+  private final Map<String, Object> filling = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService worker;
+
+  @Autowired
+  public DiskImageCache(S3StorageService s3StorageService, MeterRegistry meterRegistry,
+      @Value("${shipment.disk-cache.enabled:false}") boolean enabled,
+      @Value("${shipment.disk-cache.directory:${java.io.tmpdir}/shipment-images}") Path directory,
+      @Value("${shipment.disk-cache.maximum-size:10GB}") DataSize maximumSize,
+      @Value("${shipment.disk-cache.max-image-size:100MB}") DataSize maxImageSize) {
+    this.s3StorageService = s3StorageService;
+    this.enabled = enabled;
+    this.directory = directory;
+    this.maxImageSize = maxImageSize.toBytes();
+    // weighed in KB, so that the weight of an image fits into an int
+    this.files = Caffeine.newBuilder()
+        .maximumWeight(maximumSize.toKilobytes())
+        .weigher((String key, CachedFile file) -> (int) Math.max(1, file.length / 1024))
+        .removalListener((String key, CachedFile file, RemovalCause cause) -> {
+          if (file != null) {
+            deleteLater(key, file.path);
+          }
+        })
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, files, "image-disk");
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() throws IOException {
+    if (!enabled) {
+      return;
+    }
+    worker = Executors.newSingleThreadScheduledExecutor(
+        runnable -> new Thread(runnable, "disk-image-cache"));
+    Files.createDirectories(directory);
+    loadIndex();
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (worker != null) {
+      worker.shutdownNow();
+    }
+  }
+
+  // a single range is answered from the file as well, one that does not fit the image is left
+  // to S3 to reject
+  public Optional<ShipmentImage> get(String key, String range) {
+    if (!enabled) {
+      return Optional.empty();
+    }
+    var file = files.getIfPresent(key);
+    if (file == null) {
+      return Optional.empty();
+    }
+    if (!Files.isRegularFile(file.path)) {
+      files.invalidate(key);
+      return Optional.empty();
+    }
+    var image = ShipmentImage.builder()
+        .file(file.path)
+        .contentType(file.contentType)
+        .contentLength(file.length)
+        .eTag(file.eTag)
+        .immutable(true);
+    var matcher = range == null ? null : SINGLE_RANGE.matcher(range);
+    if (matcher == null || !matcher.matches()
+        || matcher.group(1).isEmpty() && matcher.group(2).isEmpty()) {
+      return Optional.of(image.build());
+    }
+    long start;
+    long end;
+    if (matcher.group(1).isEmpty()) {
+      start = Math.max(0, file.length - Long.parseLong(matcher.group(2)));
+      end = file.length - 1;
+    } else {
+      start = Long.parseLong(matcher.group(1));
+      end = matcher.group(2).isEmpty() ? file.length - 1
+          : Math.min(Long.parseLong(matcher.group(2)), file.length - 1);
+    }
+    if (start >= file.length || start > end) {
+      return Optional.empty();
+    }
+    return Optional.of(image
+        .fileOffset(start)
+        .contentLength(end - start + 1)
+        .contentRange(format("bytes %d-%d/%d", start, end, file.length))
+        .build());
+  }
+
+  // copies a processed image to disk in the background, with a request of its own; the
+  // download that missed the cache is not held up by the disk
+  public void fill(String key, ShipmentImage image) {
+    if (!enabled || worker == null || !image.isImmutable() || image.isNotModified()
+        || image.getETag() == null || totalLength(image) > maxImageSize) {
+      return;
+    }
+    var cached = files.getIfPresent(key);
+    var fill = new Object();
+    if (cached != null && cached.eTag.equals(image.getETag())
+        || filling.putIfAbsent(key, fill) != null) {
+      return;
+    }
+    var temp = directory.resolve(UUID.randomUUID() + TEMP_SUFFIX);
+    s3StorageService.downloadToFile(key, image.getETag(), temp)
+        .thenAcceptAsync(downloaded -> store(key, fill, downloaded, temp), worker)
+        .whenComplete((result, e) -> {
+          filling.remove(key, fill);
+          if (e != null) {
+            LOGGER.warn(format("Could not cache %s on disk: %s", key, e.getMessage()));
+            deleteQuietly(temp);
+          }
+        });
+  }
+
+  public void invalidate(String key) {
+    filling.remove(key);
+    files.invalidate(key);
+  }
+
+  // image keys start with the shipment id
+  public void invalidateShipment(String shipmentId) {
+    filling.keySet().removeIf(key -> key.startsWith(shipmentId + "/"));
+    files.asMap().keySet().removeIf(key -> key.startsWith(shipmentId + "/"));
+  }
+
+  // moved into place while the fill is still registered, an invalidation waits for it or drops
+  // it; a dropped fill leaves no file behind that a restart would pick up again
+  private void store(String key, Object fill, ShipmentImage downloaded, Path temp) {
+    try {
+      var file = new CachedFile(key, directory.resolve(fileName(key, downloaded.getETag())),
+          downloaded.getContentType(), downloaded.getETag(), Files.size(temp));
+      appendTrailer(temp, file);
+      var stored = filling.computeIfPresent(key, (ignored, current) -> {
+        if (current == fill) {
+          move(temp, file.path);
+          files.put(key, file);
+        }
+        return current;
+      }) == fill;
+      if (!stored) {
+        deleteQuietly(temp);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void move(Path source, Path target) {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void loadIndex() throws IOException {
+    var found = new ArrayList<Path>();
+    try (Stream<Path> paths = Files.list(directory)) {
+      paths.forEach(found::add);
+    }
+    // oldest first, so the least recently written files are the first to go
+    found.sort(Comparator.comparing(DiskImageCache::lastModified));
+    for (var path : found) {
+      var name = path.getFileName().toString();
+      if (name.endsWith(TEMP_SUFFIX)) {
+        deleteQuietly(path);
+      } else if (name.endsWith(IMAGE_SUFFIX)) {
+        var file = readTrailer(path);
+        if (file.isPresent()) {
+          files.put(file.get().key, file.get());
+        } else {
+          deleteQuietly(path);
+        }
+      }
+    }
+    LOGGER.info(format("Disk image cache in %s holds %d images", directory,
+        files.estimatedSize()));
+  }
+
+  private static void appendTrailer(Path path, CachedFile file) throws IOException {
+    var bytes = new ByteArrayOutputStream();
+    try (var trailer = new DataOutputStream(bytes)) {
+      trailer.writeUTF(file.key);
+      trailer.writeUTF(file.contentType);
+      trailer.writeUTF(file.eTag);
+    }
+    try (var channel = FileChannel.open(path, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+      channel.write(ByteBuffer.allocate(8).putInt(bytes.size()).putInt(TRAILER_MAGIC).flip());
+      // the move that follows must not make a file visible whose content is not on disk yet
+      channel.force(true);
+    }
+  }
+
+  private static Optional<CachedFile> readTrailer(Path path) {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      var size = channel.size();
+      if (size < 8) {
+        return Optional.empty();
+      }
+      var end = readFully(channel, size - 8, 8);
+      var trailerLength = end.getInt();
+      if (end.getInt() != TRAILER_MAGIC || trailerLength < 0 || trailerLength > size - 8) {
+        return Optional.empty();
+      }
+      var length = size - 8 - trailerLength;
+      var trailer = new DataInputStream(new ByteArrayInputStream(
+          readFully(channel, length, trailerLength).array()));
+      return Optional.of(new CachedFile(trailer.readUTF(), path, trailer.readUTF(),
+          trailer.readUTF(), length));
+    } catch (IOException e) {
+      LOGGER.warn(format("Dropping unreadable cache file %s: %s", path, e.getMessage()));
+      return Optional.empty();
+    }
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, int length)
+      throws IOException {
+    var buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    return buffer.flip();
+  }
+
+  private void deleteLater(String key, Path path) {
+    if (worker == null || worker.isShutdown()) {
+      return;
+    }
+    worker.schedule(() -> {
+      // the same image may have been stored again in the meantime
+      var current = files.getIfPresent(key);
+      if (current == null || !current.path.equals(path)) {
+        deleteQuietly(path);
+      }
+    }, DELETE_DELAY.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  // the whole object, also when only a range of it was requested
+  private static long totalLength(ShipmentImage image) {
+    if (image.isPartial()) {
+      var range = image.getContentRange();
+      var total = range.substring(range.lastIndexOf('/') + 1);
+      return total.equals("*") ? Long.MAX_VALUE : Long.parseLong(total);
+    }
+    return image.getContentLength();
+  }
+
+  private static String fileName(String key, String eTag) {
+    try {
+      var hash = MessageDigest.getInstance("SHA-256")
+          .digest(key.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(hash) + "-" + eTag.replaceAll("[^A-Za-z0-9-]", "")
+          + IMAGE_SUFFIX;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static long lastModified(Path path) {
+    try {
+      return Files.getLastModifiedTime(path).toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOGGER.warn(format("Could not delete %s: %s", path, e.getMessage()));
+    }
+  }
+
+  private static class CachedFile {
+
+    private final String key;
+    private final Path path;
+    private final String contentType;
+    private final String eTag;
+    // of the image alone, without the trailer
+    private final long length;
+
+    private CachedFile(String key, Path path, String contentType, String eTag, long length) {
+      this.key = key;
+      this.path = path;
+      this.contentType = contentType;
+      this.eTag = eTag;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,245 @@
+package dev.ancaghenade.shipmentlistdemo.repository;
+
+import static java.lang.String.format;
+
+import dev.ancaghenade.shipmentlistdemo.entity.Shipment;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentWriteResult;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.model.ReadBatch;
+import software.amazon.awssdk.enhanced.dynamodb.model.WriteBatch;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+// splits bulk requests into the largest chunks DynamoDB accepts and sends the chunks in parallel,
+// retrying whatever DynamoDB reports back as unprocessed
+@Component
+public class DynamoDBBatchOperations {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DynamoDBBatchOperations.class);
+  private static final int WRITE_CHUNK_SIZE = 25;
+  private static final int READ_CHUNK_SIZE = 100;
+  private static final int TRANSACTION_SIZE = 100;
+  private static final String CONDITIONAL_CHECK_FAILED = "ConditionalCheckFailed";
+  private static final int MAX_ATTEMPTS = 8;
+  private static final long BASE_BACKOFF_MILLIS = 50;
+  private static final long MAX_BACKOFF_MILLIS = 2000;
+
+  private final DynamoDbEnhancedClient dynamoDbClient;
+  private final DynamoDbClient dynamoDbStandardClient;
+  private final DynamoDbTable<Shipment> shipmentTable;
+  private final ExecutorService batchExecutor;
+
+  @Autowired
+  public DynamoDBBatchOperations(DynamoDbEnhancedClient dynamoDbClient,
+      DynamoDbClient dynamoDbStandardClient, DynamoDbTable<Shipment> shipmentTable,
+      @Qualifier("dynamoDbBatchExecutor") ExecutorService batchExecutor) {
+    this.dynamoDbClient = dynamoDbClient;
+    this.dynamoDbStandardClient = dynamoDbStandardClient;
+    this.shipmentTable = shipmentTable;
+    this.batchExecutor = batchExecutor;
+  }
+
+  // shipments must have an id, a batch may not contain the same key twice so the last one wins;
+  // completes once every chunk is written, no thread waits for the chunks meanwhile
+  public CompletableFuture<Map<String, ShipmentWriteResult>> putAll(List<Shipment> shipments) {
+    Map<String, Shipment> unique = new LinkedHashMap<>();
+    shipments.forEach(shipment -> unique.put(shipment.getShipmentId(), shipment));
+
+    List<CompletableFuture<Map<String, ShipmentWriteResult>>> chunks = new ArrayList<>();
+    for (List<Shipment> chunk : chunk(List.copyOf(unique.values()), WRITE_CHUNK_SIZE)) {
+      chunks.add(CompletableFuture.supplyAsync(() -> putChunk(chunk), batchExecutor));
+    }
+
+    return CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new))
+        .thenApply(ignored -> {
+          Map<String, ShipmentWriteResult> results = new HashMap<>();
+          chunks.forEach(chunk -> results.putAll(chunk.join()));
+          return results;
+        });
+  }
+
+  // sets one attribute on many shipments; BatchWriteItem can only replace whole items, so the
+  // updates go out as transactions instead. Shipments that do not exist are left alone and
+  // absent from the result
+  public Set<String> updateAll(String attributeName, Map<String, String> values) {
+    List<CompletableFuture<Set<String>>> chunks = new ArrayList<>();
+    for (List<String> chunk : chunk(List.copyOf(values.keySet()), TRANSACTION_SIZE)) {
+      chunks.add(CompletableFuture.supplyAsync(
+          () -> updateChunk(attributeName, chunk, values), batchExecutor));
+    }
+
+    Set<String> results = new LinkedHashSet<>();
+    chunks.forEach(chunk -> results.addAll(chunk.join()));
+    return results;
+  }
+
+  // shipments that do not exist are simply absent from the result
+  public CompletableFuture<Map<String, Shipment>> getAll(Collection<String> shipmentIds) {
+    List<CompletableFuture<List<Shipment>>> chunks = new ArrayList<>();
+    for (List<String> chunk : chunk(List.copyOf(new LinkedHashSet<>(shipmentIds)),
+        READ_CHUNK_SIZE)) {
+      chunks.add(CompletableFuture.supplyAsync(() -> getChunk(chunk), batchExecutor));
+    }
+
+    return CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new))
+        .thenApply(ignored -> {
+          Map<String, Shipment> results = new HashMap<>();
+          chunks.forEach(chunk -> chunk.join()
+              .forEach(shipment -> results.put(shipment.getShipmentId(), shipment)));
+          return results;
+        });
+  }
+
+  private List<Shipment> getChunk(List<String> shipmentIds) {
+    List<Shipment> results = new ArrayList<>();
+    List<Key> pending = shipmentIds.stream()
+        .map(shipmentId -> Key.builder().partitionValue(shipmentId).build())
+        .toList();
+    for (int attempt = 0; attempt < MAX_ATTEMPTS && !pending.isEmpty(); attempt++) {
+      if (attempt > 0 && !Backoff.sleep(attempt, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS)) {
+        break;
+      }
+      var batch = ReadBatch.builder(Shipment.class).mappedTableResource(shipmentTable);
+      pending.forEach(batch::addGetItem);
+      try {
+        // only the first page is requested, unprocessed keys are retried here with a backoff
+        var page = dynamoDbClient.batchGetItem(request -> request.addReadBatch(batch.build()))
+            .iterator().next();
+        results.addAll(page.resultsForTable(shipmentTable));
+        pending = page.unprocessedKeysForTable(shipmentTable);
+      } catch (SdkException e) {
+        if (!e.retryable()) {
+          throw e;
+        }
+      }
+    }
+    if (!pending.isEmpty()) {
+      throw new IllegalStateException(
+          format("Batch read left %d shipments unread after %d attempts", pending.size(),
+              MAX_ATTEMPTS));
+    }
+    return results;
+  }
+
+  private Map<String, ShipmentWriteResult> putChunk(List<Shipment> chunk) {
+    Map<String, ShipmentWriteResult> results = new HashMap<>();
+    List<Shipment> pending = chunk;
+    String error = null;
+    for (int attempt = 0; attempt < MAX_ATTEMPTS && !pending.isEmpty(); attempt++) {
+      if (attempt > 0 && !Backoff.sleep(attempt, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS)) {
+        break;
+      }
+      var batch = WriteBatch.builder(Shipment.class).mappedTableResource(shipmentTable);
+      pending.forEach(batch::addPutItem);
+      try {
+        var result = dynamoDbClient.batchWriteItem(request -> request.addWriteBatch(batch.build()));
+        var unprocessed = result.unprocessedPutItemsForTable(shipmentTable);
+        var unprocessedIds = unprocessed.stream().map(Shipment::getShipmentId).toList();
+        pending.stream()
+            .filter(shipment -> !unprocessedIds.contains(shipment.getShipmentId()))
+            .forEach(shipment -> results.put(shipment.getShipmentId(),
+                new ShipmentWriteResult(shipment.getShipmentId(), true, null)));
+        pending = unprocessed;
+        error = "Unprocessed after " + MAX_ATTEMPTS + " attempts";
+      } catch (SdkException e) {
+        error = e.getMessage();
+        if (!e.retryable()) {
+          break;
+        }
+      }
+    }
+    if (!pending.isEmpty()) {
+      LOGGER.warn(format("Batch write left %d shipments unwritten: %s", pending.size(), error));
+      for (Shipment shipment : pending) {
+        results.put(shipment.getShipmentId(),
+            new ShipmentWriteResult(shipment.getShipmentId(), false, error));
+      }
+    }
+    return results;
+  }
+
+  // a transaction fails as a whole; the updates of missing shipments are dropped from it, and
+  // what was cancelled by conflicting writes or throttling is sent again with a backoff
+  private Set<String> updateChunk(String attributeName, List<String> shipmentIds,
+      Map<String, String> values) {
+    List<String> pending = shipmentIds;
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      if (attempt > 0 && !Backoff.sleep(attempt, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS)) {
+        break;
+      }
+      try {
+        var items = pending.stream()
+            .map(shipmentId -> updateItem(shipmentId, attributeName, values.get(shipmentId)))
+            .toList();
+        dynamoDbStandardClient.transactWriteItems(request -> request.transactItems(items));
+        return Set.copyOf(pending);
+      } catch (TransactionCanceledException e) {
+        var reasons = e.cancellationReasons();
+        List<String> remaining = new ArrayList<>();
+        for (int i = 0; i < pending.size(); i++) {
+          if (i >= reasons.size() || !CONDITIONAL_CHECK_FAILED.equals(reasons.get(i).code())) {
+            remaining.add(pending.get(i));
+          }
+        }
+        if (remaining.size() < pending.size()) {
+          LOGGER.warn(format("%d shipments were not found, %s not changed.",
+              pending.size() - remaining.size(), attributeName));
+        }
+        pending = remaining;
+        if (pending.isEmpty()) {
+          return Set.of();
+        }
+      } catch (SdkException e) {
+        if (!e.retryable()) {
+          throw e;
+        }
+      }
+    }
+    throw new IllegalStateException(
+        format("Transaction left %d shipments unwritten after %d attempts", pending.size(),
+            MAX_ATTEMPTS));
+  }
+
+  private TransactWriteItem updateItem(String shipmentId, String attributeName, String value) {
+    var partitionKeyName = shipmentTable.tableSchema().tableMetadata().primaryPartitionKey();
+    return TransactWriteItem.builder()
+        .update(update -> update
+            .tableName(shipmentTable.tableName())
+            .key(Map.of(partitionKeyName, AttributeValue.builder().s(shipmentId).build()))
+            .updateExpression("SET #attribute = :value")
+            .conditionExpression("attribute_exists(#id)")
+            .expressionAttributeNames(Map.of("#id", partitionKeyName, "#attribute",
+                attributeName))
+            .expressionAttributeValues(
+                Map.of(":value", AttributeValue.builder().s(value).build())))
+        .build();
+  }
+
+  private static <T> List<List<T>> chunk(List<T> items, int size) {
+    List<List<T>> chunks = new ArrayList<>();
+    for (int from = 0; from < items.size(); from += size) {
+      chunks.add(items.subList(from, Math.min(items.size(), from + size)));
+    }
+    return chunks;
+  }
+}
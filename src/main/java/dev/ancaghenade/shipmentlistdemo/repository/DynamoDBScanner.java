@@ -0,0 +1,180 @@
+package dev.ancaghenade.shipmentlistdemo.repository;
+
+import dev.ancaghenade.shipmentlistdemo.entity.Shipment;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.model.Page;
+import software.amazon.awssdk.enhanced.dynamodb.model.ScanEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+
+// reads the whole shipment table, split into segments that are scanned side by side
+@Component
+public class DynamoDBScanner {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DynamoDBScanner.class);
+  // items buffered between the segment readers and the consumer of the stream
+  private static final int BUFFER_SIZE = 1000;
+  private static final Object END_OF_SEGMENT = new Object();
+
+  private final DynamoDbTable<Shipment> shipmentTable;
+  private final ExecutorService scanExecutor;
+  private final ReadCapacityLimiter readCapacityLimiter;
+  private final int totalSegments;
+
+  @Autowired
+  public DynamoDBScanner(DynamoDbTable<Shipment> shipmentTable,
+      @Qualifier("dynamoDbScanExecutor") ExecutorService scanExecutor,
+      ReadCapacityLimiter readCapacityLimiter,
+      @Value("${aws.dynamodb.scan.segments:1}") int totalSegments) {
+    this.shipmentTable = shipmentTable;
+    this.scanExecutor = scanExecutor;
+    this.readCapacityLimiter = readCapacityLimiter;
+    this.totalSegments = Math.max(1, totalSegments);
+  }
+
+  // the returned stream holds executor threads until it is fully read or closed
+  public Stream<Shipment> scan() {
+    if (totalSegments == 1) {
+      return shipmentTable.scan(request(null)).stream()
+          .peek(this::consumeCapacity)
+          .flatMap(page -> page.items().stream());
+    }
+
+    BlockingQueue<Object> buffer = new LinkedBlockingQueue<>(BUFFER_SIZE);
+    AtomicBoolean cancelled = new AtomicBoolean();
+    List<Future<?>> segments = new ArrayList<>(totalSegments);
+    for (int segment = 0; segment < totalSegments; segment++) {
+      int current = segment;
+      segments.add(scanExecutor.submit(() -> scanSegment(current, buffer, cancelled)));
+    }
+
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(new MergingIterator(buffer),
+                Spliterator.NONNULL), false)
+        .onClose(() -> {
+          cancelled.set(true);
+          segments.forEach(future -> future.cancel(true));
+        });
+  }
+
+  private void scanSegment(int segment, BlockingQueue<Object> buffer, AtomicBoolean cancelled) {
+    Object last = END_OF_SEGMENT;
+    try {
+      for (Page<Shipment> page : shipmentTable.scan(request(segment))) {
+        consumeCapacity(page);
+        for (Shipment shipment : page.items()) {
+          if (!offer(buffer, shipment, cancelled)) {
+            return;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    } catch (RuntimeException e) {
+      LOGGER.error(String.format("Scan of segment %d/%d failed: %s", segment, totalSegments,
+          e.getMessage()));
+      last = e;
+    }
+    try {
+      offer(buffer, last, cancelled);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // gives up once the consumer closed the stream, so no reader stays blocked on a full buffer
+  private boolean offer(BlockingQueue<Object> buffer, Object element, AtomicBoolean cancelled)
+      throws InterruptedException {
+    while (!buffer.offer(element, 100, TimeUnit.MILLISECONDS)) {
+      if (cancelled.get()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private ScanEnhancedRequest request(Integer segment) {
+    var builder = ScanEnhancedRequest.builder();
+    if (segment != null) {
+      builder.segment(segment).totalSegments(totalSegments);
+    }
+    if (readCapacityLimiter.isEnabled()) {
+      builder.returnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+    }
+    return builder.build();
+  }
+
+  private void consumeCapacity(Page<Shipment> page) {
+    if (page.consumedCapacity() == null) {
+      return;
+    }
+    try {
+      readCapacityLimiter.consume(page.consumedCapacity().capacityUnits());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while pacing table scan", e);
+    }
+  }
+
+  private class MergingIterator implements Iterator<Shipment> {
+
+    private final BlockingQueue<Object> buffer;
+    private int finishedSegments;
+    private Shipment next;
+
+    MergingIterator(BlockingQueue<Object> buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && finishedSegments < totalSegments) {
+        Object element;
+        try {
+          element = buffer.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while reading table scan", e);
+        }
+        if (element == END_OF_SEGMENT) {
+          finishedSegments++;
+        } else if (element instanceof RuntimeException e) {
+          throw new IllegalStateException("Table scan failed", e);
+        } else {
+          next = (Shipment) element;
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public Shipment next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      var shipment = next;
+      next = null;
+      return shipment;
+    }
+  }
+}
@@ -1,65 +1,250 @@
 package dev.ancaghenade.shipmentlistdemo.repository;
 
+import static java.lang.String.format;
+
+import com.github.benmanes.caffeine.cache.Cache;
 import dev.ancaghenade.shipmentlistdemo.entity.Shipment;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentPage;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentWriteResult;
+import dev.ancaghenade.shipmentlistdemo.util.PageCursor;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
-import software.amazon.awssdk.core.pagination.sync.SdkIterable;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Expression;
 import software.amazon.awssdk.enhanced.dynamodb.Key;
 import software.amazon.awssdk.enhanced.dynamodb.model.ScanEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.UpdateItemEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 
 @Repository
 public class DynamoDBService {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(DynamoDBService.class);
+
   private final DynamoDbTable<Shipment> shipmentTable;
+  private final DynamoDbAsyncTable<Shipment> shipmentAsyncTable;
+  private final DynamoDbClient dynamoDbStandardClient;
+  private final DynamoDBScanner dynamoDBScanner;
+  private final DynamoDBBatchOperations dynamoDBBatchOperations;
+  private final Cache<String, Shipment> shipmentCache;
 
   @Autowired
   public DynamoDBService(DynamoDbEnhancedClient dynamoDbClient,
-      DynamoDbTable<Shipment> shipmentTable) {
+      DynamoDbTable<Shipment> shipmentTable, DynamoDbAsyncTable<Shipment> shipmentAsyncTable,
+      DynamoDbClient dynamoDbStandardClient, DynamoDBScanner dynamoDBScanner,
+      DynamoDBBatchOperations dynamoDBBatchOperations, Cache<String, Shipment> shipmentCache) {
     this.shipmentTable = shipmentTable;
+    this.shipmentAsyncTable = shipmentAsyncTable;
+    this.dynamoDbStandardClient = dynamoDbStandardClient;
+    this.dynamoDBScanner = dynamoDBScanner;
+    this.dynamoDBBatchOperations = dynamoDBBatchOperations;
+    this.shipmentCache = shipmentCache;
   }
 
-  public Shipment upsert(Shipment shipment) {
+  public CompletableFuture<Shipment> upsert(Shipment shipment) {
     if (Objects.isNull(shipment.getShipmentId())) {
-      shipmentTable.putItem(shipment);
-    } else {
-      shipmentTable.updateItem(shipment);
+      return shipmentAsyncTable.putItem(shipment).thenApply(ignored -> shipment);
     }
-    return shipment;
+    // drop the entry first, so a failed write cannot leave a modified instance behind
+    shipmentCache.invalidate(shipment.getShipmentId());
+    return shipmentAsyncTable.updateItem(shipment).thenApply(updated -> {
+      shipmentCache.put(shipment.getShipmentId(), updated);
+      return shipment;
+    });
+  }
+
+  // results are in the order of the given shipments
+  public CompletableFuture<List<ShipmentWriteResult>> batchUpsert(List<Shipment> shipments) {
+    shipments.stream()
+        .filter(shipment -> Objects.isNull(shipment.getShipmentId()))
+        .forEach(shipment -> shipment.setShipmentId(UUID.randomUUID().toString()));
+    shipmentCache.invalidateAll(shipments.stream().map(Shipment::getShipmentId).toList());
+
+    return dynamoDBBatchOperations.putAll(shipments).thenApply(results -> shipments.stream()
+        .map(shipment -> results.get(shipment.getShipmentId()))
+        .toList());
+  }
+
+  // results follow the order of the given ids, ids without a shipment are left out
+  public CompletableFuture<List<Shipment>> batchGet(List<String> shipmentIds) {
+    Map<String, Shipment> found = new HashMap<>(shipmentCache.getAllPresent(shipmentIds));
+    var missing = shipmentIds.stream().filter(id -> !found.containsKey(id)).toList();
+    var fetched = missing.isEmpty()
+        ? CompletableFuture.completedFuture(Map.<String, Shipment>of())
+        : dynamoDBBatchOperations.getAll(missing);
+    return fetched.thenApply(shipments -> {
+      shipmentCache.putAll(shipments);
+      found.putAll(shipments);
+      return shipmentIds.stream()
+          .map(found::get)
+          .filter(Objects::nonNull)
+          .toList();
+    });
   }
 
   public Optional<Shipment> getShipment(String shipmentId) {
-    return Optional.ofNullable(
-        shipmentTable.getItem(Key.builder().partitionValue(shipmentId).build()));
+    // loaded outside of Cache.get(key, loader), which holds a map lock during the read
+    // and would pin a virtual thread for the whole DynamoDB call
+    var cached = shipmentCache.getIfPresent(shipmentId);
+    if (cached != null) {
+      return Optional.of(cached);
+    }
+    var shipment = shipmentTable.getItem(Key.builder().partitionValue(shipmentId).build());
+    // missing shipments are not cached
+    if (shipment != null) {
+      shipmentCache.put(shipmentId, shipment);
+    }
+    return Optional.ofNullable(shipment);
+  }
+
+  public CompletableFuture<Optional<Shipment>> getShipmentAsync(String shipmentId) {
+    var cached = shipmentCache.getIfPresent(shipmentId);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(Optional.of(cached));
+    }
+    return shipmentAsyncTable.getItem(Key.builder().partitionValue(shipmentId).build())
+        .thenApply(shipment -> {
+          if (shipment != null) {
+            shipmentCache.put(shipmentId, shipment);
+          }
+          return Optional.ofNullable(shipment);
+        });
+  }
+
+  // a strongly consistent read past the cache, for decisions a stale copy must not lead to
+  public boolean exists(String shipmentId) {
+    return shipmentTable.getItem(request -> request
+        .key(Key.builder().partitionValue(shipmentId).build())
+        .consistentRead(true)) != null;
   }
 
-  public String delete(String shipmentId) {
-    shipmentTable.deleteItem(Key.builder().partitionValue(shipmentId).build());
-    
-    return "Shipment has been deleted";
+  public CompletableFuture<String> delete(String shipmentId) {
+    return shipmentAsyncTable.deleteItem(Key.builder().partitionValue(shipmentId).build())
+        .thenApply(deleted -> {
+          shipmentCache.invalidate(shipmentId);
+          return "Shipment has been deleted";
+        });
   }
 
   public List<Shipment> getAllShipments() {
-    ScanEnhancedRequest request = ScanEnhancedRequest.builder().build();
-    SdkIterable<Shipment> shipments = shipmentTable.scan(request).items();
-    return shipments.stream().toList();
+    try (Stream<Shipment> shipments = streamAllShipments()) {
+      return shipments.toList();
+    }
+  }
+
+  // callers must close the stream, it may be backed by parallel segment readers
+  public Stream<Shipment> streamAllShipments() {
+    return dynamoDBScanner.scan();
   }
 
-  public void removeImageLink(String shipmentId) {
-    Optional.ofNullable(shipmentTable.getItem(Key.builder().partitionValue(shipmentId).build()))
-        .ifPresent(shipment -> shipment.setImageLink(null));
+  public CompletableFuture<ShipmentPage> getShipmentPage(int pageSize, String cursor) {
+    ScanEnhancedRequest request = ScanEnhancedRequest.builder()
+        .limit(pageSize)
+        .exclusiveStartKey(PageCursor.decode(cursor))
+        .build();
+    // only the first page is fetched, the rest of the table is never touched
+    var result = new CompletableFuture<ShipmentPage>();
+    shipmentAsyncTable.scan(request).limit(1)
+        .subscribe(page -> result.complete(
+            new ShipmentPage(page.items(), PageCursor.encode(page.lastEvaluatedKey()))))
+        .whenComplete((ignored, error) -> {
+          if (error != null) {
+            result.completeExceptionally(error);
+          } else {
+            result.complete(new ShipmentPage(List.of(), null));
+          }
+        });
+    return result;
   }
 
-  public void updateImageLink(String shipmentId, String message) {
-    Optional.ofNullable(shipmentTable.getItem(Key.builder().partitionValue(shipmentId).build()))
-        .ifPresent(shipment -> {
-          shipment.setImageLink(message);
-          shipmentTable.updateItem(shipment);
+  // writes only the attributes set on the given shipment, in one conditional round trip
+  public CompletableFuture<Optional<Shipment>> patch(String shipmentId, Shipment changes) {
+    changes.setShipmentId(shipmentId);
+    shipmentCache.invalidate(shipmentId);
+    return shipmentAsyncTable.updateItem(UpdateItemEnhancedRequest.builder(Shipment.class)
+            .item(changes)
+            .ignoreNulls(true)
+            .conditionExpression(Expression.builder()
+                .expression("attribute_exists(#id)")
+                .putExpressionName("#id", partitionKeyName())
+                .build())
+            .build())
+        .thenApply(updated -> {
+          shipmentCache.put(shipmentId, updated);
+          return Optional.of(updated);
+        })
+        .exceptionally(e -> {
+          if (e.getCause() instanceof ConditionalCheckFailedException) {
+            return Optional.empty();
+          }
+          throw e instanceof CompletionException completionException ? completionException
+              : new CompletionException(e);
         });
+  }
+
+  public Optional<Shipment> removeImageLink(String shipmentId) {
+    return updateAttributes(shipmentId, "REMOVE imageLink", Map.of());
+  }
+
+  public Optional<Shipment> updateImageLink(String shipmentId, String message) {
+    return updateAttributes(shipmentId, "SET imageLink = :imageLink",
+        Map.of(":imageLink", AttributeValue.builder().s(message).build()));
+  }
+
+  // the cached shipments are dropped, the batched writes do not return the new items
+  public Set<String> updateImageLinks(Map<String, String> imageLinks) {
+    shipmentCache.invalidateAll(imageLinks.keySet());
+    var updated = dynamoDBBatchOperations.updateAll("imageLink", imageLinks);
+    // a read during the writes may have cached a shipment as it was before
+    shipmentCache.invalidateAll(updated);
+    return updated;
+  }
+
+  // a single UpdateItem that only applies to existing shipments and returns the new item,
+  // so the cache is refreshed without reading the shipment first
+  private Optional<Shipment> updateAttributes(String shipmentId, String updateExpression,
+      Map<String, AttributeValue> values) {
+    shipmentCache.invalidate(shipmentId);
+    var request = UpdateItemRequest.builder()
+        .tableName(shipmentTable.tableName())
+        .key(Map.of(partitionKeyName(), AttributeValue.builder().s(shipmentId).build()))
+        .updateExpression(updateExpression)
+        .conditionExpression("attribute_exists(#id)")
+        .expressionAttributeNames(Map.of("#id", partitionKeyName()))
+        .returnValues(ReturnValue.ALL_NEW);
+    if (!values.isEmpty()) {
+      request.expressionAttributeValues(values);
+    }
+    try {
+      var updated = shipmentTable.tableSchema()
+          .mapToItem(dynamoDbStandardClient.updateItem(request.build()).attributes());
+      shipmentCache.put(shipmentId, updated);
+      return Optional.of(updated);
+    } catch (ConditionalCheckFailedException e) {
+      LOGGER.warn(format("Shipment %s was not found, image link not changed.", shipmentId));
+      return Optional.empty();
+    }
+  }
 
+  private String partitionKeyName() {
+    return shipmentTable.tableSchema().tableMetadata().primaryPartitionKey();
   }
 }
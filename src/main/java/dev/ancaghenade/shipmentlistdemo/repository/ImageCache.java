@@ -0,0 +1,224 @@
+package dev.ancaghenade.shipmentlistdemo.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentImage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+// whole images by S3 key, bounded by their total size in bytes; entries are filled while a
+// download streams to its client, so caching costs no extra read from S3.
+// Processed images never change and stay until evicted, the others expire after a short time,
+// since the validator Lambda may rewrite them on another instance's watch
+@Component
+public class ImageCache {
+
+  private final Cache<String, CachedImage> images;
+  // fills still reading their image, to their key; an invalidation drops the ones of its keys,
+  // so that an image read before it is not cached after it
+  private final Map<Object, String> filling = new ConcurrentHashMap<>();
+  private final long maxImageSize;
+  private final boolean offHeap;
+
+  @Autowired
+  public ImageCache(MeterRegistry meterRegistry,
+      @Value("${shipment.image-cache.maximum-size:64MB}") DataSize maximumSize,
+      @Value("${shipment.image-cache.max-image-size:4MB}") DataSize maxImageSize,
+      @Value("${shipment.image-cache.mutable-ttl:30s}") Duration mutableTtl,
+      @Value("${shipment.image-cache.off-heap:false}") boolean offHeap) {
+    this.maxImageSize = maxImageSize.toBytes();
+    this.offHeap = offHeap;
+    this.images = Caffeine.newBuilder()
+        .maximumWeight(maximumSize.toBytes())
+        .weigher((String key, CachedImage image) -> image.content.capacity())
+        .expireAfter(new Expiry<String, CachedImage>() {
+          @Override
+          public long expireAfterCreate(String key, CachedImage image, long currentTime) {
+            return image.immutable ? Long.MAX_VALUE : mutableTtl.toNanos();
+          }
+
+          @Override
+          public long expireAfterUpdate(String key, CachedImage image, long currentTime,
+              long currentDuration) {
+            return expireAfterCreate(key, image, currentTime);
+          }
+
+          @Override
+          public long expireAfterRead(String key, CachedImage image, long currentTime,
+              long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, images, "image");
+    meterRegistry.gauge("shipment.image-cache.bytes", List.of(), images,
+        cache -> cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0))
+            .orElse(0L));
+  }
+
+  public Optional<ShipmentImage> get(String key) {
+    return Optional.ofNullable(images.getIfPresent(key)).map(CachedImage::toShipmentImage);
+  }
+
+  // returns the image with its content copied into the cache as it is read; only complete
+  // images of a known, small enough size are kept
+  public ShipmentImage fill(String key, ShipmentImage image) {
+    if (image.isNotModified() || image.isPartial() || image.getETag() == null
+        || image.getContentLength() <= 0 || image.getContentLength() > maxImageSize) {
+      return image;
+    }
+    var buffer = offHeap ? ByteBuffer.allocateDirect((int) image.getContentLength())
+        : ByteBuffer.allocate((int) image.getContentLength());
+    var fill = new Object();
+    filling.put(fill, key);
+    image.setContent(new FillingInputStream(image.getContent(), buffer,
+        // put while the fill is still registered, an invalidation waits for it or drops it
+        () -> filling.computeIfPresent(fill, (ignored, filled) -> {
+          images.put(key, new CachedImage(buffer.flip().asReadOnlyBuffer(),
+              image.getContentType(), image.getETag(), image.isImmutable()));
+          return null;
+        }),
+        () -> filling.remove(fill)));
+    return image;
+  }
+
+  public void invalidate(String key) {
+    filling.values().removeIf(key::equals);
+    images.invalidate(key);
+  }
+
+  // image keys start with the shipment id
+  public void invalidateShipment(String shipmentId) {
+    filling.values().removeIf(key -> key.startsWith(shipmentId + "/"));
+    images.asMap().keySet().removeIf(key -> key.startsWith(shipmentId + "/"));
+  }
+
+  private static class CachedImage {
+
+    private final ByteBuffer content;
+    private final String contentType;
+    private final String eTag;
+    private final boolean immutable;
+
+    private CachedImage(ByteBuffer content, String contentType, String eTag, boolean immutable) {
+      this.content = content;
+      this.contentType = contentType;
+      this.eTag = eTag;
+      this.immutable = immutable;
+    }
+
+    private ShipmentImage toShipmentImage() {
+      return ShipmentImage.builder()
+          .content(new ByteBufferInputStream(content.duplicate()))
+          .contentType(contentType)
+          .contentLength(content.capacity())
+          .eTag(eTag)
+          .immutable(immutable)
+          .build();
+    }
+  }
+
+  // copies everything read into the buffer and hands it over once the buffer is full;
+  // a stream closed early, or delivering more than announced, leaves the cache alone
+  private static class FillingInputStream extends FilterInputStream {
+
+    private final ByteBuffer buffer;
+    private final Runnable onComplete;
+    private final Runnable onClose;
+    private boolean done;
+
+    private FillingInputStream(InputStream in, ByteBuffer buffer, Runnable onComplete,
+        Runnable onClose) {
+      super(in);
+      this.buffer = buffer;
+      this.onComplete = onComplete;
+      this.onClose = onClose;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        onClose.run();
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      var b = super.read();
+      if (b == -1) {
+        complete();
+      } else if (!done && buffer.hasRemaining()) {
+        buffer.put((byte) b);
+      } else {
+        done = true;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      var read = super.read(bytes, offset, length);
+      if (read == -1) {
+        complete();
+      } else if (!done && buffer.remaining() >= read) {
+        buffer.put(bytes, offset, read);
+      } else {
+        done = true;
+      }
+      return read;
+    }
+
+    private void complete() {
+      if (!done && !buffer.hasRemaining()) {
+        done = true;
+        onComplete.run();
+      }
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      var read = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, read);
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
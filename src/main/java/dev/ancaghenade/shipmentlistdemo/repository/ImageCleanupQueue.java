@@ -0,0 +1,58 @@
+package dev.ancaghenade.shipmentlistdemo.repository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlResponse;
+
+// the images of deleted shipments are removed by whichever instance takes the request off the
+// queue; a request stays there until every object under the shipment's prefix is gone. Requests
+// are delivered after a delay, a shipment is deleted only once its cleanup has been queued
+@Component
+public class ImageCleanupQueue {
+
+  // the longest delay SQS allows
+  private static final long MAX_DELAY_SECONDS = 900;
+
+  private final SqsAsyncClient sqsClient;
+  private final String queueName;
+  private final int delaySeconds;
+  private volatile CompletableFuture<String> queueUrl;
+
+  @Autowired
+  public ImageCleanupQueue(SqsAsyncClient sqsClient,
+      @Value("${shipment.image-cleanup.queue:shipment_image_cleanup_queue}") String queueName,
+      @Value("${shipment.image-cleanup.delay:10s}") Duration delay) {
+    this.sqsClient = sqsClient;
+    this.queueName = queueName;
+    this.delaySeconds = (int) Math.min(delay.toSeconds(), MAX_DELAY_SECONDS);
+  }
+
+  public CompletableFuture<Void> enqueue(String shipmentId, Instant deletedAt) {
+    var request = new JSONObject()
+        .put("shipmentId", shipmentId)
+        .put("deletedAt", deletedAt.toString());
+    return getQueueUrl()
+        .thenCompose(url -> sqsClient.sendMessage(message -> message
+            .queueUrl(url)
+            .messageBody(request.toString())
+            .delaySeconds(delaySeconds)))
+        .thenApply(response -> null);
+  }
+
+  // resolved once, a failed lookup is tried again with the next request
+  private CompletableFuture<String> getQueueUrl() {
+    var url = queueUrl;
+    if (url == null || url.isCompletedExceptionally()) {
+      url = sqsClient.getQueueUrl(request -> request.queueName(queueName))
+          .thenApply(GetQueueUrlResponse::queueUrl);
+      queueUrl = url;
+    }
+    return url;
+  }
+}
@@ -0,0 +1,44 @@
+package dev.ancaghenade.shipmentlistdemo.repository;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// paces scan pages so that all segments together stay under the table's read capacity
+@Component
+public class ReadCapacityLimiter {
+
+  private final double unitsPerSecond;
+  private final ReentrantLock lock = new ReentrantLock();
+  private long nextFreeNanos = System.nanoTime();
+
+  public ReadCapacityLimiter(
+      @Value("${aws.dynamodb.scan.max-read-capacity:0}") double unitsPerSecond) {
+    this.unitsPerSecond = unitsPerSecond;
+  }
+
+  public boolean isEnabled() {
+    return unitsPerSecond > 0;
+  }
+
+  // capacity is only known once a page came back, so the cost is paid before the next page
+  public void consume(Double capacityUnits) throws InterruptedException {
+    if (!isEnabled() || capacityUnits == null || capacityUnits <= 0) {
+      return;
+    }
+    long waitNanos;
+    lock.lock();
+    try {
+      long now = System.nanoTime();
+      long start = Math.max(nextFreeNanos, now);
+      nextFreeNanos = start + (long) (capacityUnits / unitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+      waitNanos = start - now;
+    } finally {
+      lock.unlock();
+    }
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package dev.ancaghenade.shipmentlistdemo.repository;
+
+import static java.lang.String.format;
+
+import dev.ancaghenade.shipmentlistdemo.buckets.BucketName;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+// uploads a large object as parts sent over parallel connections; the parts are read one after
+// the other from the stream and only as many are held in memory as are being sent.
+// A failed part is retried on its own, if it still fails the whole upload is aborted, so that
+// no parts are left behind to be billed for
+@Component
+public class S3MultipartUpload {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(S3MultipartUpload.class);
+  // S3 rejects smaller parts, except for the last one
+  private static final long MIN_PART_SIZE = DataSize.ofMegabytes(5).toBytes();
+  private static final long BASE_BACKOFF_MILLIS = 100;
+  private static final long MAX_BACKOFF_MILLIS = 5000;
+
+  private final S3Client s3;
+  private final BucketName bucketName;
+  private final ExecutorService uploadExecutor;
+  private final int partSize;
+  private final int concurrency;
+  private final int maxAttempts;
+
+  @Autowired
+  public S3MultipartUpload(S3Client s3, BucketName bucketName,
+      @Qualifier("s3UploadExecutor") ExecutorService uploadExecutor,
+      @Value("${aws.s3.multipart.part-size:8MB}") DataSize partSize,
+      @Value("${aws.s3.multipart.concurrency:4}") int concurrency,
+      @Value("${aws.s3.multipart.max-attempts:3}") int maxAttempts) {
+    this.s3 = s3;
+    this.bucketName = bucketName;
+    this.uploadExecutor = uploadExecutor;
+    this.partSize = (int) Math.max(MIN_PART_SIZE, partSize.toBytes());
+    this.concurrency = concurrency;
+    this.maxAttempts = maxAttempts;
+  }
+
+  public void upload(String key, String contentType, InputStream content, long size) {
+    var uploadId = s3.createMultipartUpload(request -> request
+            .bucket(bucketName.getShipmentPictureBucket())
+            .key(key)
+            .contentType(contentType))
+        .uploadId();
+    try {
+      var completedParts = uploadParts(key, uploadId, content, size);
+      s3.completeMultipartUpload(request -> request
+          .bucket(bucketName.getShipmentPictureBucket())
+          .key(key)
+          .uploadId(uploadId)
+          .multipartUpload(upload -> upload.parts(completedParts)));
+    } catch (RuntimeException e) {
+      abort(key, uploadId);
+      throw e;
+    }
+  }
+
+  private List<CompletedPart> uploadParts(String key, String uploadId, InputStream content,
+      long size) {
+    // a permit per part in flight, the next part is only read once one is free
+    var inFlight = new Semaphore(concurrency);
+    List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+    var completed = false;
+    try {
+      var partNumber = 1;
+      for (long offset = 0; offset < size; offset += partSize, partNumber++) {
+        inFlight.acquire();
+        if (parts.stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+          inFlight.release();
+          break;
+        }
+        var bytes = content.readNBytes((int) Math.min(partSize, size - offset));
+        if (offset + bytes.length < Math.min(size, offset + partSize)) {
+          inFlight.release();
+          throw new IllegalStateException(
+              format("Upload of %s ended after %d of %d bytes", key, offset + bytes.length,
+                  size));
+        }
+        var number = partNumber;
+        parts.add(CompletableFuture
+            .supplyAsync(() -> uploadPart(key, uploadId, number, bytes), uploadExecutor)
+            .whenComplete((part, e) -> inFlight.release()));
+      }
+      List<CompletedPart> completedParts = new ArrayList<>();
+      for (var part : parts) {
+        completedParts.add(part.join());
+      }
+      completed = true;
+      return completedParts;
+    } catch (IOException e) {
+      throw new IllegalStateException(format("Could not read upload of %s", key), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(format("Upload of %s was interrupted", key), e);
+    } catch (CompletionException e) {
+      throw new IllegalStateException(format("Upload of %s failed", key), e.getCause());
+    } finally {
+      if (!completed) {
+        // parts still being sent when the upload is aborted could be stored after all
+        parts.forEach(part -> part.exceptionally(e -> null).join());
+      }
+    }
+  }
+
+  private CompletedPart uploadPart(String key, String uploadId, int partNumber, byte[] bytes) {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        var response = s3.uploadPart(request -> request
+                .bucket(bucketName.getShipmentPictureBucket())
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength((long) bytes.length),
+            RequestBody.fromBytes(bytes));
+        return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+      } catch (SdkException e) {
+        if (attempt >= maxAttempts
+            || !Backoff.sleep(attempt, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS)) {
+          throw e;
+        }
+        LOGGER.warn(format("Retrying part %d of %s after: %s", partNumber, key,
+            e.getMessage()));
+      }
+    }
+  }
+
+  // S3 drops the parts uploaded so far; the bucket's lifecycle rule catches uploads that could
+  // not even be aborted
+  private void abort(String key, String uploadId) {
+    try {
+      s3.abortMultipartUpload(request -> request
+          .bucket(bucketName.getShipmentPictureBucket())
+          .key(key)
+          .uploadId(uploadId));
+    } catch (SdkException e) {
+      LOGGER.error(format("Could not abort upload %s of %s: %s", uploadId, key, e.getMessage()));
+    }
+  }
+}
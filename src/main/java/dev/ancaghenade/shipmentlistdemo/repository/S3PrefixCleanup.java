@@ -0,0 +1,150 @@
+package dev.ancaghenade.shipmentlistdemo.repository;
+
+import static java.lang.String.format;
+
+import dev.ancaghenade.shipmentlistdemo.buckets.BucketName;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+// deletes everything under a prefix, one DeleteObjects call per listed page of keys; the next
+// pages are listed while earlier ones are being deleted.
+// Keys S3 could not delete are retried on their own, objects written after the cutoff are left
+// alone, since they belong to a shipment created again under the same id
+@Component
+public class S3PrefixCleanup {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(S3PrefixCleanup.class);
+  // the most keys a single DeleteObjects call accepts
+  private static final int MAX_KEYS_PER_BATCH = 1000;
+  private static final long BASE_BACKOFF_MILLIS = 100;
+  private static final long MAX_BACKOFF_MILLIS = 5000;
+
+  private final S3Client s3;
+  private final BucketName bucketName;
+  private final ExecutorService cleanupExecutor;
+  private final int concurrency;
+  private final int maxAttempts;
+  private final Counter deletedObjects;
+  private final Counter failedObjects;
+  private final Counter batches;
+  private final AtomicInteger pendingBatches = new AtomicInteger();
+  private final AtomicInteger runningCleanups = new AtomicInteger();
+  private final Timer cleanupTimer;
+
+  @Autowired
+  public S3PrefixCleanup(S3Client s3, BucketName bucketName,
+      @Qualifier("s3CleanupExecutor") ExecutorService cleanupExecutor,
+      MeterRegistry meterRegistry,
+      @Value("${shipment.image-cleanup.concurrency:4}") int concurrency,
+      @Value("${shipment.image-cleanup.max-attempts:5}") int maxAttempts) {
+    this.s3 = s3;
+    this.bucketName = bucketName;
+    this.cleanupExecutor = cleanupExecutor;
+    this.concurrency = concurrency;
+    this.maxAttempts = maxAttempts;
+    this.deletedObjects = meterRegistry.counter("shipment.image-cleanup.objects", "result",
+        "deleted");
+    this.failedObjects = meterRegistry.counter("shipment.image-cleanup.objects", "result",
+        "failed");
+    this.batches = meterRegistry.counter("shipment.image-cleanup.batches");
+    meterRegistry.gauge("shipment.image-cleanup.batches.pending", pendingBatches);
+    meterRegistry.gauge("shipment.image-cleanup.running", runningCleanups);
+    this.cleanupTimer = meterRegistry.timer("shipment.image-cleanup.duration");
+  }
+
+  // fails if any object is left, so the cleanup can be run again
+  public void deletePrefix(String prefix, Instant cutoff) {
+    runningCleanups.incrementAndGet();
+    var sample = Timer.start();
+    // a permit per batch being deleted, the next page is only listed once one is free
+    var inFlight = new Semaphore(concurrency);
+    List<CompletableFuture<Integer>> results = new ArrayList<>();
+    try {
+      var pages = s3.listObjectsV2Paginator(request -> request
+          .bucket(bucketName.getShipmentPictureBucket())
+          .prefix(prefix)
+          .maxKeys(MAX_KEYS_PER_BATCH));
+      for (var page : pages) {
+        var keys = page.contents().stream()
+            .filter(object -> !object.lastModified().isAfter(cutoff))
+            .map(S3Object::key)
+            .toList();
+        if (keys.isEmpty()) {
+          continue;
+        }
+        inFlight.acquire();
+        pendingBatches.incrementAndGet();
+        results.add(CompletableFuture
+            .supplyAsync(() -> deleteBatch(prefix, keys), cleanupExecutor)
+            .whenComplete((failed, e) -> {
+              pendingBatches.decrementAndGet();
+              inFlight.release();
+            }));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(format("Cleanup of %s was interrupted", prefix), e);
+    } finally {
+      // batches still running when listing fails are finished before the cleanup is retried
+      var failed = results.stream().mapToInt(result -> result.exceptionally(e -> 1).join()).sum();
+      sample.stop(cleanupTimer);
+      runningCleanups.decrementAndGet();
+      if (failed > 0) {
+        throw new IllegalStateException(
+            format("%d objects under %s could not be deleted", failed, prefix));
+      }
+    }
+  }
+
+  // returns how many keys are left after the last attempt
+  private int deleteBatch(String prefix, List<String> keys) {
+    var remaining = keys;
+    for (int attempt = 1; ; attempt++) {
+      batches.increment();
+      var batch = remaining;
+      try {
+        // quiet mode only reports the keys that could not be deleted
+        var response = s3.deleteObjects(request -> request
+            .bucket(bucketName.getShipmentPictureBucket())
+            .delete(delete -> delete
+                .quiet(true)
+                .objects(batch.stream()
+                    .map(key -> ObjectIdentifier.builder().key(key).build())
+                    .toList())));
+        remaining = response.errors().stream().map(S3Error::key).toList();
+        deletedObjects.increment(batch.size() - remaining.size());
+      } catch (SdkException e) {
+        LOGGER.warn(format("Could not delete %d objects under %s: %s", batch.size(), prefix,
+            e.getMessage()));
+      }
+      if (remaining.isEmpty()) {
+        return 0;
+      }
+      if (attempt >= maxAttempts
+          || !Backoff.sleep(attempt, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS)) {
+        failedObjects.increment(remaining.size());
+        LOGGER.error(format("Gave up deleting %d objects under %s", remaining.size(), prefix));
+        return remaining.size();
+      }
+    }
+  }
+}
@@ -1,43 +1,95 @@
 package dev.ancaghenade.shipmentlistdemo.repository;
 
 import dev.ancaghenade.shipmentlistdemo.buckets.BucketName;
-import dev.ancaghenade.shipmentlistdemo.util.FileUtil;
+import dev.ancaghenade.shipmentlistdemo.entity.PresignedImageUrl;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentImage;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import software.amazon.awssdk.awscore.presigner.PresignedRequest;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
-import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
-import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-import software.amazon.awssdk.services.s3.model.S3Error;
-import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 @Service
 public class S3StorageService {
 
   private final S3Client s3;
+  private final S3AsyncClient s3Async;
   private static final Logger LOGGER = LoggerFactory.getLogger(S3StorageService.class);
+  private static final String PROCESSED_METADATA = "exclude-lambda";
+  private static final String METADATA_HEADER_PREFIX = "x-amz-meta-";
+  private static final Pattern SINGLE_RANGE = Pattern.compile("bytes=(\\d+-\\d*|-\\d+)");
 
   private final BucketName bucketName;
+  private final S3MultipartUpload s3MultipartUpload;
+  private final S3PrefixCleanup s3PrefixCleanup;
+  private final S3Presigner s3Presigner;
+  private final long multipartThreshold;
+  private final Duration presignedUploadTtl;
+  private final Duration presignedDownloadTtl;
+
   @Autowired
-  public S3StorageService(S3Client s3, BucketName bucketName) {
+  public S3StorageService(S3Client s3, S3AsyncClient s3Async, BucketName bucketName,
+      S3MultipartUpload s3MultipartUpload, S3PrefixCleanup s3PrefixCleanup,
+      S3Presigner s3Presigner,
+      @Value("${aws.s3.multipart.threshold:16MB}") DataSize multipartThreshold,
+      @Value("${aws.s3.presign.upload-ttl:10m}") Duration presignedUploadTtl,
+      @Value("${aws.s3.presign.download-ttl:5m}") Duration presignedDownloadTtl) {
     this.s3 = s3;
+    this.s3Async = s3Async;
     this.bucketName = bucketName;
+    this.s3MultipartUpload = s3MultipartUpload;
+    this.s3PrefixCleanup = s3PrefixCleanup;
+    this.s3Presigner = s3Presigner;
+    this.multipartThreshold = multipartThreshold.toBytes();
+    this.presignedUploadTtl = presignedUploadTtl;
+    this.presignedDownloadTtl = presignedDownloadTtl;
   }
 
+  // the upload is streamed from the request part with its known length, no copy is made;
+  // the part itself is removed by Spring once the request is done.
+  // Large files are sent in parts over parallel connections instead
   public void save(String path, String fileName,
       MultipartFile multipartFile)
       throws IOException {
+    if (multipartFile.getSize() >= multipartThreshold) {
+      try (var content = multipartFile.getInputStream()) {
+        s3MultipartUpload.upload(path + "/" + fileName, multipartFile.getContentType(), content,
+            multipartFile.getSize());
+      }
+      return;
+    }
     PutObjectRequest putObjectRequest = PutObjectRequest.builder()
         .bucket(bucketName.getShipmentPictureBucket())
         .key(path + "/" + fileName)
@@ -45,53 +97,146 @@ public class S3StorageService {
         .contentLength(multipartFile.getSize())
         .build();
 
-    s3.putObject(putObjectRequest,
-        RequestBody.fromFile(FileUtil.convertMultipartFileToFile(multipartFile)));
+    try (var content = multipartFile.getInputStream()) {
+      s3.putObject(putObjectRequest,
+          RequestBody.fromInputStream(content, multipartFile.getSize()));
+    }
+  }
 
+  // content type and length are signed, S3 refuses an upload that does not match them
+  public PresignedImageUrl presignUpload(String key, String contentType, long contentLength) {
+    var presigned = s3Presigner.presignPutObject(request -> request
+        .signatureDuration(presignedUploadTtl)
+        .putObjectRequest(object -> object
+            .bucket(bucketName.getShipmentPictureBucket())
+            .key(key)
+            .contentType(contentType)
+            .contentLength(contentLength)));
+    return toPresignedImageUrl(presigned, key);
   }
 
-  public byte[] download(String key) throws IOException {
+  public PresignedImageUrl presignDownload(String key) {
+    var presigned = s3Presigner.presignGetObject(request -> request
+        .signatureDuration(presignedDownloadTtl)
+        .getObjectRequest(object -> object
+            .bucket(bucketName.getShipmentPictureBucket())
+            .key(key)));
+    return toPresignedImageUrl(presigned, key);
+  }
+
+  // the size of the object, empty if there is none under the key
+  public Optional<Long> findSize(String key) {
+    try {
+      return Optional.of(s3.headObject(request -> request
+              .bucket(bucketName.getShipmentPictureBucket())
+              .key(key))
+          .contentLength());
+    } catch (NoSuchKeyException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static PresignedImageUrl toPresignedImageUrl(PresignedRequest presigned, String key) {
+    return PresignedImageUrl.builder()
+        .method(presigned.httpRequest().method().name())
+        .url(presigned.url().toString())
+        // the host header is set by every client on its own
+        .headers(presigned.signedHeaders().entrySet().stream()
+            .filter(header -> !header.getKey().equalsIgnoreCase(HttpHeaders.HOST))
+            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)))
+        .expiration(presigned.expiration())
+        .imageLink(key)
+        .build();
+  }
+
+  // a single "bytes=" range is passed on to S3, anything else is answered with the whole object;
+  // the body is streamed, only the part currently being copied is held in memory.
+  // ifNoneMatch is checked by S3, a match comes back as not modified without a body
+  public CompletableFuture<ShipmentImage> download(String key, String range, String ifNoneMatch) {
     GetObjectRequest getObjectRequest = GetObjectRequest.builder()
         .bucket(bucketName.getShipmentPictureBucket())
         .key(key)
+        .range(isSingleRange(range) ? range : null)
+        .ifNoneMatch(ifNoneMatch)
         .build();
-    byte[] object = new byte[0];
-    try {
-      object = s3.getObject(getObjectRequest).readAllBytes();
-    } catch (NoSuchKeyException noSuchKeyException) {
-      LOGGER.warn(String.format("Could not find object: %s", noSuchKeyException.getMessage()));
-    }
-    return object;
+    return s3Async.getObject(getObjectRequest, AsyncResponseTransformer.toBlockingInputStream())
+        .thenApply(S3StorageService::toShipmentImage)
+        .exceptionally(e -> {
+          if (e.getCause() instanceof NoSuchKeyException noSuchKeyException) {
+            LOGGER.warn(String.format("Could not find object: %s",
+                noSuchKeyException.getMessage()));
+            return ShipmentImage.builder()
+                .content(InputStream.nullInputStream())
+                .contentType(MediaType.IMAGE_JPEG_VALUE)
+                .build();
+          }
+          if (e.getCause() instanceof S3Exception s3Exception
+              && s3Exception.statusCode() == HttpStatus.NOT_MODIFIED.value()) {
+            return notModified(s3Exception, ifNoneMatch);
+          }
+          if (e.getCause() instanceof S3Exception s3Exception
+              && s3Exception.statusCode() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+            throw new ResponseStatusException(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE,
+                "Range " + range + " is outside of the image", s3Exception);
+          }
+          throw e instanceof CompletionException completionException ? completionException
+              : new CompletionException(e);
+        });
   }
 
-  public void delete(String folderPrefix) {
-    List<ObjectIdentifier> keysToDelete = new ArrayList<>();
-    s3.listObjectsV2Paginator(
-            builder -> builder.bucket(bucketName.getShipmentPictureBucket())
-                .prefix(folderPrefix + "/"))
-        .contents().stream()
-        .map(S3Object::key)
-        .forEach(key -> keysToDelete.add(ObjectIdentifier.builder().key(key).build()));
-
-    DeleteObjectsRequest deleteRequest = DeleteObjectsRequest.builder()
+  // the object is written to file as it arrives; ifMatch makes sure it is still the version
+  // the caller has seen, the returned image describes it and has no content
+  public CompletableFuture<ShipmentImage> downloadToFile(String key, String ifMatch, Path file) {
+    GetObjectRequest getObjectRequest = GetObjectRequest.builder()
         .bucket(bucketName.getShipmentPictureBucket())
-        .delete(builder -> builder.objects(keysToDelete).build())
+        .key(key)
+        .ifMatch(ifMatch)
         .build();
+    return s3Async.getObject(getObjectRequest, AsyncResponseTransformer.toFile(file))
+        .thenApply(response -> toShipmentImage(response).build());
+  }
 
-    try {
-      DeleteObjectsResponse response = s3.deleteObjects(deleteRequest);
-      List<S3Error> errors = response.errors();
-      if (!errors.isEmpty()) {
-        LOGGER.error("Errors occurred while deleting objects:");
-        errors.forEach(error -> System.out.println("Object: " + error.key() +
-            ", Error Code: " + error.code() +
-            ", Error Message: " + error.message()));
-      } else {
-        LOGGER.info("Objects deleted successfully.");
-      }
-    } catch (SdkException e) {
-      LOGGER.error("Error occurred during object deletion: " + e.getMessage());
-    }
+  private static ShipmentImage toShipmentImage(
+      ResponseInputStream<GetObjectResponse> responseInputStream) {
+    return toShipmentImage(responseInputStream.response())
+        .content(responseInputStream)
+        .build();
+  }
+
+  private static ShipmentImage.ShipmentImageBuilder toShipmentImage(GetObjectResponse response) {
+    return ShipmentImage.builder()
+        .contentType(Objects.requireNonNullElse(response.contentType(),
+            MediaType.APPLICATION_OCTET_STREAM_VALUE))
+        .contentLength(response.contentLength())
+        .contentRange(response.contentRange())
+        .eTag(response.eTag())
+        .immutable(isProcessed(response.metadata()));
   }
 
+  // the 304 carries the ETag, and the metadata only if S3 chooses to send it along
+  private static ShipmentImage notModified(S3Exception s3Exception, String ifNoneMatch) {
+    var headers = s3Exception.awsErrorDetails().sdkHttpResponse();
+    return ShipmentImage.builder()
+        .eTag(headers.firstMatchingHeader(HttpHeaders.ETAG).orElse(ifNoneMatch))
+        .notModified(true)
+        .immutable(headers.firstMatchingHeader(METADATA_HEADER_PREFIX + PROCESSED_METADATA)
+            .map(Boolean::parseBoolean)
+            .orElse(false))
+        .build();
+  }
+
+  // the validator Lambda rewrites every upload once under the same key and marks the rewrite,
+  // from then on the object behind the key stays as it is
+  private static boolean isProcessed(Map<String, String> metadata) {
+    return Boolean.parseBoolean(metadata.get(PROCESSED_METADATA));
+  }
+
+  private static boolean isSingleRange(String range) {
+    return range != null && SINGLE_RANGE.matcher(range).matches();
+  }
+
+  // image keys start with the shipment id
+  public void deleteShipmentImages(String shipmentId, Instant cutoff) {
+    s3PrefixCleanup.deletePrefix(shipmentId + "/", cutoff);
+  }
 }
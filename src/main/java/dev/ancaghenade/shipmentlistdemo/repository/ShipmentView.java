@@ -0,0 +1,242 @@
+package dev.ancaghenade.shipmentlistdemo.repository;
+
+import static java.lang.String.format;
+
+import dev.ancaghenade.shipmentlistdemo.entity.Shipment;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.ExpiredIteratorException;
+import software.amazon.awssdk.services.dynamodb.model.OperationType;
+import software.amazon.awssdk.services.dynamodb.model.Record;
+import software.amazon.awssdk.services.dynamodb.model.Shard;
+import software.amazon.awssdk.services.dynamodb.model.ShardIteratorType;
+import software.amazon.awssdk.services.dynamodb.model.TrimmedDataAccessException;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+
+// in-memory copy of the shipment table, loaded once by a scan and then kept current from the
+// table's stream, so that reads from any instance see writes from all instances
+@Component
+public class ShipmentView {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ShipmentView.class);
+  private static final int RECORDS_PER_READ = 1000;
+  private static final int MAX_READS_PER_POLL = 10;
+
+  private final DynamoDbTable<Shipment> shipmentTable;
+  private final DynamoDbClient dynamoDbClient;
+  private final DynamoDbStreamsClient dynamoDbStreamsClient;
+  private final DynamoDBScanner dynamoDBScanner;
+  private final boolean enabled;
+  private final Duration pollInterval;
+
+  private final Map<String, Shipment> shipments = new ConcurrentHashMap<>();
+  // only touched by the poller thread
+  private final Map<String, String> shardIterators = new HashMap<>();
+  private final Set<String> finishedShards = new HashSet<>();
+  private String streamArn;
+  private boolean shardsChanged;
+
+  private ScheduledExecutorService poller;
+  private volatile boolean ready;
+
+  @Autowired
+  public ShipmentView(DynamoDbTable<Shipment> shipmentTable, DynamoDbClient dynamoDbClient,
+      DynamoDbStreamsClient dynamoDbStreamsClient, DynamoDBScanner dynamoDBScanner,
+      MeterRegistry meterRegistry,
+      @Value("${shipment.view.enabled:false}") boolean enabled,
+      @Value("${shipment.view.poll-interval:1s}") Duration pollInterval) {
+    this.shipmentTable = shipmentTable;
+    this.dynamoDbClient = dynamoDbClient;
+    this.dynamoDbStreamsClient = dynamoDbStreamsClient;
+    this.dynamoDBScanner = dynamoDBScanner;
+    this.enabled = enabled;
+    this.pollInterval = pollInterval;
+    meterRegistry.gaugeMapSize("shipment.view.size", List.of(), shipments);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    poller = Executors.newSingleThreadScheduledExecutor(
+        runnable -> new Thread(runnable, "shipment-view"));
+    poller.scheduleWithFixedDelay(this::poll, 0, pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (poller != null) {
+      poller.shutdownNow();
+    }
+  }
+
+  public boolean isReady() {
+    return ready;
+  }
+
+  public List<Shipment> getAllShipments() {
+    return List.copyOf(shipments.values());
+  }
+
+  public Stream<Shipment> streamAllShipments() {
+    return shipments.values().stream();
+  }
+
+  public Optional<Shipment> getShipment(String shipmentId) {
+    return Optional.ofNullable(shipments.get(shipmentId));
+  }
+
+  // writes from this instance become visible right away instead of after the stream lag
+  public void put(Shipment shipment) {
+    if (ready) {
+      shipments.put(shipment.getShipmentId(), shipment);
+    }
+  }
+
+  public void remove(String shipmentId) {
+    shipments.remove(shipmentId);
+  }
+
+  private void poll() {
+    try {
+      if (!ready) {
+        bootstrap();
+      }
+      if (shardsChanged) {
+        discoverShards();
+      }
+      readShards();
+    } catch (ExpiredIteratorException | TrimmedDataAccessException e) {
+      LOGGER.warn("Shipment view fell behind the table stream, reloading: " + e.getMessage());
+      ready = false;
+    } catch (RuntimeException e) {
+      // keep the scheduled task alive, the next poll tries again
+      LOGGER.error("Shipment view update failed: " + e.getMessage());
+    }
+  }
+
+  private void bootstrap() {
+    streamArn = dynamoDbClient.describeTable(builder -> builder.tableName(
+        shipmentTable.tableName())).table().latestStreamArn();
+    if (streamArn == null) {
+      throw new IllegalStateException(
+          format("Table %s has no stream enabled", shipmentTable.tableName()));
+    }
+
+    // stream positions are taken before the scan, so nothing written during the scan is lost
+    shardIterators.clear();
+    finishedShards.clear();
+    for (Shard shard : describeShards()) {
+      if (shard.sequenceNumberRange().endingSequenceNumber() == null) {
+        shardIterators.put(shard.shardId(), shardIterator(shard, ShardIteratorType.LATEST));
+      } else {
+        finishedShards.add(shard.shardId());
+      }
+    }
+    shardsChanged = false;
+
+    Map<String, Shipment> snapshot = new HashMap<>();
+    try (Stream<Shipment> all = dynamoDBScanner.scan()) {
+      all.forEach(shipment -> snapshot.put(shipment.getShipmentId(), shipment));
+    }
+    shipments.keySet().retainAll(snapshot.keySet());
+    shipments.putAll(snapshot);
+    ready = true;
+    LOGGER.info(format("Shipment view loaded %d shipments from table %s", snapshot.size(),
+        shipmentTable.tableName()));
+  }
+
+  // picks up the children of closed shards, a child is only read once its parent is done
+  private void discoverShards() {
+    shardsChanged = false;
+    for (Shard shard : describeShards()) {
+      var shardId = shard.shardId();
+      if (shardIterators.containsKey(shardId) || finishedShards.contains(shardId)) {
+        continue;
+      }
+      if (shard.parentShardId() != null && shardIterators.containsKey(shard.parentShardId())) {
+        shardsChanged = true;
+        continue;
+      }
+      shardIterators.put(shardId, shardIterator(shard, ShardIteratorType.TRIM_HORIZON));
+    }
+  }
+
+  private void readShards() {
+    for (var shardId : List.copyOf(shardIterators.keySet())) {
+      var iterator = shardIterators.get(shardId);
+      for (int read = 0; read < MAX_READS_PER_POLL && iterator != null; read++) {
+        var currentIterator = iterator;
+        var response = dynamoDbStreamsClient.getRecords(
+            builder -> builder.shardIterator(currentIterator).limit(RECORDS_PER_READ));
+        response.records().forEach(this::apply);
+        iterator = response.nextShardIterator();
+        if (response.records().size() < RECORDS_PER_READ) {
+          break;
+        }
+      }
+      if (iterator == null) {
+        shardIterators.remove(shardId);
+        finishedShards.add(shardId);
+        shardsChanged = true;
+      } else {
+        shardIterators.put(shardId, iterator);
+      }
+    }
+  }
+
+  private void apply(Record record) {
+    var change = record.dynamodb();
+    var keyAttribute = shipmentTable.tableSchema().tableMetadata().primaryPartitionKey();
+    var shipmentId = change.keys().get(keyAttribute).s();
+    if (record.eventName() == OperationType.REMOVE) {
+      shipments.remove(shipmentId);
+    } else {
+      shipments.put(shipmentId, shipmentTable.tableSchema().mapToItem(change.newImage()));
+    }
+  }
+
+  private List<Shard> describeShards() {
+    List<Shard> shards = new ArrayList<>();
+    String lastShardId = null;
+    do {
+      var exclusiveStartShardId = lastShardId;
+      var description = dynamoDbStreamsClient.describeStream(builder -> builder
+          .streamArn(streamArn)
+          .exclusiveStartShardId(exclusiveStartShardId)).streamDescription();
+      shards.addAll(description.shards());
+      lastShardId = description.lastEvaluatedShardId();
+    } while (lastShardId != null);
+    return shards;
+  }
+
+  private String shardIterator(Shard shard, ShardIteratorType type) {
+    return dynamoDbStreamsClient.getShardIterator(builder -> builder
+        .streamArn(streamArn)
+        .shardId(shard.shardId())
+        .shardIteratorType(type)).shardIterator();
+  }
+}
@@ -0,0 +1,308 @@
+package dev.ancaghenade.shipmentlistdemo.service;
+
+import static java.lang.String.format;
+
+import io.awspring.cloud.sqs.listener.SqsMessageListenerContainer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sns.SnsClient;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
+
+// picture updates are taken off a competing-consumer queue, so only one instance sees each of
+// them. With clustering on, that instance publishes the event to a topic instead of pushing it
+// itself, and every instance, itself included, receives it through a queue of its own that is
+// subscribed to the topic. The queue is created at startup and removed on shutdown. An instance
+// that dies cannot do the latter, so every instance tags its queue with a heartbeat, and removes
+// the queues whose heartbeat has stopped, along with subscriptions left without a queue
+@Component
+public class ClusterEventRelay {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ClusterEventRelay.class);
+  // the shortest retention SQS allows, clients have long given up on older events
+  private static final String MESSAGE_RETENTION_SECONDS = "60";
+  private static final String HEARTBEAT_TAG = "heartbeat";
+
+  private final SnsClient snsClient;
+  private final SqsAsyncClient sqsClient;
+  private final SseBroadcaster sseBroadcaster;
+  private final boolean enabled;
+  private final String topicArn;
+  private final String queuePrefix;
+  private final String queueName;
+  private final Duration heartbeatInterval;
+  private final Duration staleAfter;
+  private final Counter publishedEvents;
+  private final Counter failedEvents;
+  private final Counter receivedEvents;
+
+  private String queueUrl;
+  private String subscriptionArn;
+  private SqsMessageListenerContainer<String> container;
+  private ScheduledExecutorService housekeeper;
+
+  @Autowired
+  public ClusterEventRelay(SnsClient snsClient, SqsAsyncClient sqsClient,
+      SseBroadcaster sseBroadcaster, MeterRegistry meterRegistry,
+      @Value("${shipment.cluster.enabled:false}") boolean enabled,
+      @Value("${shipment.cluster.topic-arn:}") String topicArn,
+      @Value("${shipment.cluster.queue-prefix:shipment_events_}") String queuePrefix,
+      @Value("${shipment.cluster.instance-id:}") String instanceId,
+      @Value("${shipment.cluster.heartbeat-interval:1m}") Duration heartbeatInterval,
+      @Value("${shipment.cluster.stale-after:5m}") Duration staleAfter) {
+    this.snsClient = snsClient;
+    this.sqsClient = sqsClient;
+    this.sseBroadcaster = sseBroadcaster;
+    this.enabled = enabled;
+    this.topicArn = topicArn;
+    this.queuePrefix = queuePrefix;
+    this.queueName = queuePrefix + (instanceId.isEmpty() ? UUID.randomUUID() : instanceId);
+    this.heartbeatInterval = heartbeatInterval;
+    this.staleAfter = staleAfter;
+    this.publishedEvents = meterRegistry.counter("shipment.cluster.events", "result",
+        "published");
+    this.failedEvents = meterRegistry.counter("shipment.cluster.events", "result", "failed");
+    this.receivedEvents = meterRegistry.counter("shipment.cluster.events", "result", "received");
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    try {
+      queueUrl = sqsClient.createQueue(request -> request
+              .queueName(queueName)
+              .attributes(Map.of(QueueAttributeName.MESSAGE_RETENTION_PERIOD,
+                  MESSAGE_RETENTION_SECONDS)))
+          .join()
+          .queueUrl();
+      // before anything else, a queue left behind under a stable instance id may be stale
+      heartbeat();
+      var queueArn = sqsClient.getQueueAttributes(request -> request
+              .queueUrl(queueUrl)
+              .attributeNames(QueueAttributeName.QUEUE_ARN))
+          .join()
+          .attributes()
+          .get(QueueAttributeName.QUEUE_ARN);
+      sqsClient.setQueueAttributes(request -> request
+              .queueUrl(queueUrl)
+              .attributes(Map.of(QueueAttributeName.POLICY, queuePolicy(queueArn))))
+          .join();
+      // raw delivery leaves out the SNS envelope, the message body is the event itself
+      subscriptionArn = snsClient.subscribe(request -> request
+              .topicArn(topicArn)
+              .protocol("sqs")
+              .endpoint(queueArn)
+              .attributes(Map.of("RawMessageDelivery", "true"))
+              .returnSubscriptionArn(true))
+          .subscriptionArn();
+    } catch (CompletionException | SdkException e) {
+      // whatever was created so far is removed again when the failed context is closed
+      throw new IllegalStateException(
+          format("Could not subscribe queue %s to topic %s", queueName, topicArn), e);
+    }
+
+    container = SqsMessageListenerContainer.<String>builder()
+        .id("cluster-events")
+        .sqsAsyncClient(sqsClient)
+        .queueNames(queueName)
+        .messageListener(message -> relay(message.getPayload()))
+        .build();
+    container.start();
+    LOGGER.info(format("Receiving cluster events through queue %s", queueName));
+
+    housekeeper = Executors.newSingleThreadScheduledExecutor(
+        runnable -> new Thread(runnable, "cluster-events-housekeeping"));
+    housekeeper.scheduleWithFixedDelay(this::keepAlive, 0, heartbeatInterval.toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (housekeeper != null) {
+      housekeeper.shutdownNow();
+    }
+    if (container != null) {
+      container.stop();
+    }
+    if (subscriptionArn != null) {
+      try {
+        snsClient.unsubscribe(request -> request.subscriptionArn(subscriptionArn));
+      } catch (SdkException e) {
+        LOGGER.error(format("Could not unsubscribe queue %s: %s", queueName, e.getMessage()));
+      }
+    }
+    if (queueUrl != null) {
+      try {
+        sqsClient.deleteQueue(request -> request.queueUrl(queueUrl)).join();
+      } catch (CompletionException e) {
+        LOGGER.error(format("Could not delete queue %s: %s", queueName, e.getMessage()));
+      }
+    }
+  }
+
+  // the event reaches the clients of this instance through its own queue as well; without
+  // clustering it goes to them directly
+  public void publish(Collection<String> shipmentIds) {
+    if (shipmentIds.isEmpty()) {
+      return;
+    }
+    if (!enabled) {
+      sseBroadcaster.broadcast(shipmentIds);
+      return;
+    }
+    try {
+      snsClient.publish(request -> request
+          .topicArn(topicArn)
+          .message(new JSONObject().put("shipmentIds", shipmentIds).toString()));
+      publishedEvents.increment();
+    } catch (SdkException e) {
+      // the updates themselves are stored, only the clients of the other instances miss them
+      LOGGER.error(format("Could not publish event of shipments %s: %s", shipmentIds,
+          e.getMessage()));
+      failedEvents.increment();
+      sseBroadcaster.broadcast(shipmentIds);
+    }
+  }
+
+  private void keepAlive() {
+    try {
+      heartbeat();
+      removeStaleQueues();
+    } catch (CompletionException | SdkException e) {
+      LOGGER.warn(format("Could not look after the cluster event queues: %s", e.getMessage()));
+    }
+  }
+
+  private void heartbeat() {
+    sqsClient.tagQueue(request -> request
+            .queueUrl(queueUrl)
+            .tags(Map.of(HEARTBEAT_TAG, Long.toString(System.currentTimeMillis()))))
+        .join();
+  }
+
+  // every instance does this, a queue or subscription another one removed first is skipped
+  private void removeStaleQueues() {
+    var staleBefore = System.currentTimeMillis() - staleAfter.toMillis();
+    List<String> queueUrls = new ArrayList<>();
+    sqsClient.listQueuesPaginator(request -> request.queueNamePrefix(queuePrefix))
+        .queueUrls()
+        .subscribe(queueUrls::add)
+        .join();
+    for (var url : queueUrls) {
+      if (lastName(url).equals(queueName)) {
+        continue;
+      }
+      try {
+        if (lastHeartbeat(url) < staleBefore) {
+          sqsClient.deleteQueue(request -> request.queueUrl(url)).join();
+          LOGGER.info(format("Removed queue %s of an instance that is gone", lastName(url)));
+        }
+      } catch (CompletionException | SdkException | NumberFormatException e) {
+        LOGGER.warn(format("Could not remove queue %s: %s", lastName(url), e.getMessage()));
+      }
+    }
+
+    // SNS keeps delivering to the subscription of a queue that is gone
+    snsClient.listSubscriptionsByTopicPaginator(request -> request.topicArn(topicArn))
+        .subscriptions()
+        .stream()
+        .filter(subscription -> "sqs".equals(subscription.protocol()))
+        .filter(subscription -> lastName(subscription.endpoint()).startsWith(queuePrefix))
+        .forEach(subscription -> {
+          try {
+            if (!queueExists(lastName(subscription.endpoint()))) {
+              snsClient.unsubscribe(request -> request
+                  .subscriptionArn(subscription.subscriptionArn()));
+              LOGGER.info(format("Removed subscription of queue %s",
+                  lastName(subscription.endpoint())));
+            }
+          } catch (CompletionException | SdkException e) {
+            LOGGER.warn(format("Could not remove subscription %s: %s",
+                subscription.subscriptionArn(), e.getMessage()));
+          }
+        });
+  }
+
+  // queues from before there were heartbeats count from their creation
+  private long lastHeartbeat(String url) {
+    var heartbeat = sqsClient.listQueueTags(request -> request.queueUrl(url))
+        .join()
+        .tags()
+        .get(HEARTBEAT_TAG);
+    if (heartbeat != null) {
+      return Long.parseLong(heartbeat);
+    }
+    var created = sqsClient.getQueueAttributes(request -> request
+            .queueUrl(url)
+            .attributeNames(QueueAttributeName.CREATED_TIMESTAMP))
+        .join()
+        .attributes()
+        .get(QueueAttributeName.CREATED_TIMESTAMP);
+    return TimeUnit.SECONDS.toMillis(Long.parseLong(created));
+  }
+
+  // asked for by name, listings of queues may lag behind
+  private boolean queueExists(String name) {
+    try {
+      sqsClient.getQueueUrl(request -> request.queueName(name)).join();
+      return true;
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof QueueDoesNotExistException) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  // the queue name at the end of a queue URL or ARN
+  private static String lastName(String urlOrArn) {
+    return urlOrArn.substring(Math.max(urlOrArn.lastIndexOf('/'), urlOrArn.lastIndexOf(':')) + 1);
+  }
+
+  private void relay(String event) {
+    receivedEvents.increment();
+    var shipmentIds = new JSONObject(event).getJSONArray("shipmentIds");
+    sseBroadcaster.broadcast(IntStream.range(0, shipmentIds.length())
+        .mapToObj(shipmentIds::getString)
+        .toList());
+  }
+
+  // only the topic may send to the queue
+  private String queuePolicy(String queueArn) {
+    return new JSONObject()
+        .put("Version", "2012-10-17")
+        .put("Statement", new JSONArray().put(new JSONObject()
+            .put("Effect", "Allow")
+            .put("Principal", new JSONObject().put("Service", "sns.amazonaws.com"))
+            .put("Action", "sqs:SendMessage")
+            .put("Resource", queueArn)
+            .put("Condition", new JSONObject()
+                .put("ArnEquals", new JSONObject().put("aws:SourceArn", topicArn)))))
+        .toString();
+  }
+}
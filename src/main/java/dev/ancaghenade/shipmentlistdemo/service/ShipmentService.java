@@ -2,48 +2,186 @@ package dev.ancaghenade.shipmentlistdemo.service;
 
 import static java.lang.String.format;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import dev.ancaghenade.shipmentlistdemo.entity.PresignedImageUrl;
 import dev.ancaghenade.shipmentlistdemo.entity.Shipment;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentImage;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentPage;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentWriteResult;
+import dev.ancaghenade.shipmentlistdemo.repository.DiskImageCache;
 import dev.ancaghenade.shipmentlistdemo.repository.DynamoDBService;
+import dev.ancaghenade.shipmentlistdemo.repository.ImageCache;
+import dev.ancaghenade.shipmentlistdemo.repository.ImageCleanupQueue;
 import dev.ancaghenade.shipmentlistdemo.repository.S3StorageService;
-import java.io.File;
+import dev.ancaghenade.shipmentlistdemo.repository.ShipmentView;
+import dev.ancaghenade.shipmentlistdemo.util.ImageThumbnails;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 @Service
 public class ShipmentService {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(ShipmentService.class);
+  private static final int MAX_PAGE_SIZE = 100;
+  private static final int MAX_IDS_PER_REQUEST = 1000;
+
+  private static final String PLACEHOLDER = "placeholder.jpg";
 
   private final DynamoDBService dynamoDBService;
   private final S3StorageService s3StorageService;
-
+  private final ShipmentView shipmentView;
+  private final ImageCache imageCache;
+  private final DiskImageCache diskImageCache;
+  private final ImageCleanupQueue imageCleanupQueue;
+  private final Cache<String, Boolean> thumbnailMissCache;
+  // read once, it is sent for every shipment without an image
+  private final byte[] placeholder;
+  private final String placeholderETag;
+  private final long maxImageSize;
+  private final List<Integer> thumbnailWidths;
+  private final Duration cleanupDeleteTimeout;
 
   @Autowired
-  public ShipmentService(DynamoDBService dynamoDBService, S3StorageService s3StorageService) {
+  public ShipmentService(DynamoDBService dynamoDBService, S3StorageService s3StorageService,
+      ShipmentView shipmentView, ImageCache imageCache, DiskImageCache diskImageCache,
+      ImageCleanupQueue imageCleanupQueue, Cache<String, Boolean> thumbnailMissCache,
+      @Value("${spring.servlet.multipart.max-file-size:100MB}") DataSize maxImageSize,
+      @Value("${shipment.image.thumbnail-widths:160,320,640}") List<Integer> thumbnailWidths,
+      @Value("${shipment.image-cleanup.delete-timeout:5m}") Duration cleanupDeleteTimeout) {
     this.dynamoDBService = dynamoDBService;
     this.s3StorageService = s3StorageService;
+    this.shipmentView = shipmentView;
+    this.imageCache = imageCache;
+    this.diskImageCache = diskImageCache;
+    this.imageCleanupQueue = imageCleanupQueue;
+    this.thumbnailMissCache = thumbnailMissCache;
+    this.maxImageSize = maxImageSize.toBytes();
+    this.thumbnailWidths = thumbnailWidths;
+    this.cleanupDeleteTimeout = cleanupDeleteTimeout;
+    try (var content = new ClassPathResource(PLACEHOLDER).getInputStream()) {
+      this.placeholder = content.readAllBytes();
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not read " + PLACEHOLDER, e);
+    }
+    this.placeholderETag = format("\"%s\"", DigestUtils.md5DigestAsHex(placeholder));
   }
 
   public List<Shipment> getAllShipments() {
+    if (shipmentView.isReady()) {
+      return shipmentView.getAllShipments();
+    }
     return dynamoDBService.getAllShipments();
   }
 
-  public String deleteShipment(String shipmentId) {
-    s3StorageService.delete(shipmentId);
-    return dynamoDBService.delete(shipmentId);
+  public Stream<Shipment> streamAllShipments() {
+    if (shipmentView.isReady()) {
+      return shipmentView.streamAllShipments();
+    }
+    return dynamoDBService.streamAllShipments();
+  }
+
+  public CompletableFuture<Shipment> getShipmentById(String shipmentId) {
+    return findShipment(shipmentId).thenApply(found -> found.orElseThrow(
+        () -> new IllegalStateException(format("Shipment %s was not found.", shipmentId))));
   }
 
-  public Shipment saveShipment(Shipment shipment) {
-    return dynamoDBService.upsert(shipment);
+  public CompletableFuture<ShipmentPage> getShipmentPage(int pageSize, String cursor) {
+    if (pageSize < 1) {
+      throw new IllegalStateException("Page size must be positive. Page size: [" + pageSize + "]");
+    }
+    return dynamoDBService.getShipmentPage(Math.min(pageSize, MAX_PAGE_SIZE), cursor);
+  }
+
+  public CompletableFuture<List<Shipment>> getShipments(List<String> shipmentIds) {
+    if (shipmentIds.size() > MAX_IDS_PER_REQUEST) {
+      throw new IllegalStateException(
+          "Too many shipment ids requested. Number of ids: [" + shipmentIds.size() + "]");
+    }
+    return dynamoDBService.batchGet(shipmentIds);
+  }
+
+  // the cleanup of the images is queued first, a shipment is only deleted once they are sure to
+  // follow; if the cleanup cannot be queued the request fails and the shipment stays
+  public CompletableFuture<String> deleteShipment(String shipmentId) {
+    var deletedAt = Instant.now();
+    return imageCleanupQueue.enqueue(shipmentId, deletedAt)
+        .thenCompose(queued -> dynamoDBService.delete(shipmentId))
+        .thenApply(result -> {
+          shipmentView.remove(shipmentId);
+          imageCache.invalidateShipment(shipmentId);
+          diskImageCache.invalidateShipment(shipmentId);
+          return result;
+        });
+  }
+
+  // only objects from before the deletion are removed, a shipment may have been created again
+  // under the same id in the meantime. The cleanup is queued ahead of the delete and delivered
+  // after a delay; a delete that has not landed yet gets another one, queued anew. Past the
+  // timeout the delete has failed, or the shipment was created again, and its images are kept
+  public void deleteShipmentImages(String shipmentId, Instant deletedAt) {
+    if (dynamoDBService.exists(shipmentId)) {
+      if (Instant.now().isBefore(deletedAt.plus(cleanupDeleteTimeout))) {
+        LOGGER.info(format("Shipment %s is not deleted yet, its image cleanup is put off.",
+            shipmentId));
+        imageCleanupQueue.enqueue(shipmentId, deletedAt).join();
+        return;
+      }
+      LOGGER.warn(format("Shipment %s still exists, its images are kept.", shipmentId));
+      return;
+    }
+    s3StorageService.deleteShipmentImages(shipmentId, deletedAt);
+  }
+
+  public CompletableFuture<Shipment> saveShipment(Shipment shipment) {
+    return dynamoDBService.upsert(shipment).thenApply(saved -> {
+      shipmentView.put(saved);
+      return saved;
+    });
+  }
+
+  public CompletableFuture<List<ShipmentWriteResult>> saveShipments(List<Shipment> shipments) {
+    return dynamoDBService.batchUpsert(shipments).thenApply(results -> {
+      for (int i = 0; i < shipments.size(); i++) {
+        if (results.get(i).isWritten()) {
+          shipmentView.put(shipments.get(i));
+        }
+      }
+      return results;
+    });
+  }
+
+  public CompletableFuture<Shipment> patchShipment(String shipmentId, Shipment changes) {
+    return dynamoDBService.patch(shipmentId, changes).thenApply(found -> {
+      var patched = found.orElseThrow(
+          () -> new IllegalStateException(format("Shipment %s was not found.", shipmentId)));
+      shipmentView.put(patched);
+      return patched;
+    });
   }
 
   public void removeImageLink(String shipmentId) {
-    dynamoDBService.removeImageLink(shipmentId);
+    dynamoDBService.removeImageLink(shipmentId).ifPresent(shipmentView::put);
   }
 
   public void uploadShipmentImage(String shipmentId, MultipartFile file) {
@@ -54,38 +192,164 @@ public class ShipmentService {
 
     String path = shipment.getShipmentId();
 
-    String fileName = format("%s-%s", UUID.randomUUID(), file.getOriginalFilename());
+    String fileName = imageFileName(file.getOriginalFilename());
     try {
       s3StorageService.save(path, fileName, file);
     } catch (IOException e) {
       throw new IllegalStateException(e);
     }
-    shipment.setImageLink(format("%s/%s", path, fileName));
-    dynamoDBService.upsert(shipment);
+    updateImageLink(shipmentId, format("%s/%s", path, fileName));
   }
 
 
-  public byte[] downloadShipmentImage(String shipmentId) throws IllegalStateException {
-    Shipment shipment = dynamoDBService.getShipment(shipmentId).stream()
-        .findFirst()
-        .orElseThrow(
-            () -> new IllegalStateException(format("Shipment %s was not found.", shipmentId)));
+  // the client puts the image to S3 itself, the same size limit applies as for uploads
+  // through the app
+  public PresignedImageUrl createImageUploadUrl(String shipmentId, String fileName,
+      String contentType, long contentLength) {
+    if (contentLength < 1 || contentLength > maxImageSize) {
+      throw new IllegalStateException(
+          "Image size must be between 1 and " + maxImageSize + " bytes. Size: [" + contentLength
+              + "]");
+    }
+    Shipment shipment = getShipment(shipmentId);
+    return s3StorageService.presignUpload(
+        format("%s/%s", shipment.getShipmentId(), imageFileName(fileName)), contentType,
+        contentLength);
+  }
 
-    try {
-      return Optional.ofNullable(shipment.getImageLink())
-          .map(link -> {
-            try {
-              return s3StorageService.download(link);
-            } catch (IOException e) {
-              throw new RuntimeException(e);
-            }
-          })
-          .orElse(Files.readAllBytes(new File("src/main/resources/placeholder.jpg").toPath()));
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+  // an image uploaded with a presigned URL only becomes the shipment's image once it is in S3
+  public void confirmImageUpload(String shipmentId, String imageLink) {
+    if (!imageLink.startsWith(shipmentId + "/")) {
+      throw new IllegalStateException(
+          format("Image %s does not belong to shipment %s.", imageLink, shipmentId));
+    }
+    getShipment(shipmentId);
+    if (s3StorageService.findSize(imageLink).isEmpty()) {
+      throw new IllegalStateException(format("Image %s was not uploaded.", imageLink));
+    }
+    updateImageLink(shipmentId, imageLink);
+  }
+
+  public CompletableFuture<PresignedImageUrl> createImageDownloadUrl(String shipmentId) {
+    return getShipmentById(shipmentId).thenApply(shipment -> {
+      if (shipment.getImageLink() == null) {
+        throw new IllegalStateException(format("Shipment %s has no image.", shipmentId));
+      }
+      return s3StorageService.presignDownload(shipment.getImageLink());
+    });
+  }
+
+  public CompletableFuture<ShipmentImage> downloadShipmentImage(String shipmentId, Integer width,
+      String range, String ifNoneMatch) {
+    return findShipment(shipmentId).thenCompose(found -> {
+      Shipment shipment = found.orElseThrow(
+          () -> new IllegalStateException(format("Shipment %s was not found.", shipmentId)));
+      if (shipment.getImageLink() == null) {
+        return CompletableFuture.completedFuture(getPlaceholder(ifNoneMatch));
+      }
+      return download(shipment.getImageLink(), width, range, ifNoneMatch);
+    });
+  }
+
+  // image links are "<shipmentId>/<fileName>"; only the current image of a shipment is served,
+  // the response may be cached for good, so it must not outlive the shipment or its image
+  public CompletableFuture<ShipmentImage> downloadImage(String shipmentId, String fileName,
+      Integer width, String range, String ifNoneMatch) {
+    var key = format("%s/%s", shipmentId, fileName);
+    return findShipment(shipmentId).thenCompose(found -> {
+      Shipment shipment = found.orElseThrow(
+          () -> new IllegalStateException(format("Shipment %s was not found.", shipmentId)));
+      if (!key.equals(shipment.getImageLink())) {
+        throw new IllegalStateException(
+            format("Image %s is not the image of shipment %s.", key, shipmentId));
+      }
+      return download(key, width, range, ifNoneMatch);
+    });
+  }
+
+  // a width picks the closest thumbnail; images processed before there were thumbnails, or not
+  // processed yet, have none and are sent as they are. Such a miss is remembered for the image,
+  // so that it does not cost another request to S3 every time
+  private CompletableFuture<ShipmentImage> download(String key, Integer width, String range,
+      String ifNoneMatch) {
+    var thumbnailWidth = width == null ? OptionalInt.empty()
+        : ImageThumbnails.closestWidth(thumbnailWidths, width);
+    if (thumbnailWidth.isEmpty() || thumbnailMissCache.getIfPresent(key) != null) {
+      return download(key, range, ifNoneMatch);
+    }
+    return download(ImageThumbnails.thumbnailKey(key, thumbnailWidth.getAsInt()), range,
+        ifNoneMatch)
+        .thenCompose(thumbnail -> {
+          if (isMissing(thumbnail)) {
+            thumbnailMissCache.put(key, Boolean.TRUE);
+            return download(key, range, ifNoneMatch);
+          }
+          return CompletableFuture.completedFuture(thumbnail);
+        });
+  }
+
+  // whole images are served from memory when possible, then from local disk, which can also
+  // answer ranges, and only then from S3; whatever comes from S3 fills both caches
+  private CompletableFuture<ShipmentImage> download(String key, String range,
+      String ifNoneMatch) {
+    var cached = range == null ? imageCache.get(key) : Optional.<ShipmentImage>empty();
+    if (cached.isEmpty()) {
+      cached = diskImageCache.get(key, range);
+    }
+    if (cached.isPresent()) {
+      var image = cached.get();
+      return CompletableFuture.completedFuture(isMatch(ifNoneMatch, image.getETag())
+          ? notModified(image.getETag(), image.isImmutable()) : image);
+    }
+    return s3StorageService.download(key, range, ifNoneMatch)
+        .thenApply(image -> {
+          diskImageCache.fill(key, image);
+          return imageCache.fill(key, image);
+        });
+  }
+
+  // reads may be served by the view, a shipment written moments ago by another instance can
+  // still be missing there, so those fall back to the table
+  private CompletableFuture<Optional<Shipment>> findShipment(String shipmentId) {
+    if (shipmentView.isReady()) {
+      var shipment = shipmentView.getShipment(shipmentId);
+      if (shipment.isPresent()) {
+        return CompletableFuture.completedFuture(shipment);
+      }
+    }
+    return dynamoDBService.getShipmentAsync(shipmentId);
+  }
+
+  // the placeholder is small, so ranges are ignored and it is always sent whole
+  private ShipmentImage getPlaceholder(String ifNoneMatch) {
+    if (isMatch(ifNoneMatch, placeholderETag)) {
+      return notModified(placeholderETag, false);
     }
+    return ShipmentImage.builder()
+        .content(new ByteArrayInputStream(placeholder))
+        .contentType(MediaType.IMAGE_JPEG_VALUE)
+        .contentLength(placeholder.length)
+        .eTag(placeholderETag)
+        .build();
+  }
+
+  // S3 answers a missing key with an empty image without an ETag
+  private static boolean isMissing(ShipmentImage image) {
+    return !image.isNotModified() && image.getETag() == null;
+  }
+
+  private static boolean isMatch(String ifNoneMatch, String eTag) {
+    return ifNoneMatch != null && (ifNoneMatch.contains(eTag) || ifNoneMatch.trim().equals("*"));
+  }
+
+  private static ShipmentImage notModified(String eTag, boolean immutable) {
+    return ShipmentImage.builder().eTag(eTag).notModified(true).immutable(immutable).build();
   }
 
+  // a fresh name for every upload, so the key of a stored image never points to another one
+  private static String imageFileName(String originalFilename) {
+    return format("%s-%s", UUID.randomUUID(), StringUtils.getFilename(originalFilename));
+  }
 
   private Shipment getShipment(String shipmentId) {
     return dynamoDBService.getShipment(shipmentId).stream()
@@ -102,7 +366,43 @@ public class ShipmentService {
   }
 
 
+  // also called when the validator Lambda has rewritten the object behind imageLink
   public void updateImageLink(String shipmentId, String imageLink) {
-    dynamoDBService.updateImageLink(shipmentId, imageLink);
+    imageCache.invalidate(imageLink);
+    diskImageCache.invalidate(imageLink);
+    thumbnailMissCache.invalidate(imageLink);
+    dynamoDBService.updateImageLink(shipmentId, imageLink).ifPresent(shipmentView::put);
+  }
+
+  // image links by shipment id, as a batch of notifications brings them; returns the ids of the
+  // shipments that exist and were updated
+  public Set<String> updateImageLinks(Map<String, String> imageLinks) {
+    imageLinks.values().forEach(imageLink -> {
+      imageCache.invalidate(imageLink);
+      diskImageCache.invalidate(imageLink);
+    });
+    // the images have been processed, their thumbnails are there now
+    thumbnailMissCache.invalidateAll(imageLinks.values());
+    var updated = dynamoDBService.updateImageLinks(imageLinks);
+    // the batched writes do not return the items, the view's copies are updated here instead
+    updated.forEach(shipmentId -> shipmentView.getShipment(shipmentId)
+        .ifPresent(shipment -> shipmentView.put(
+            shipment.toBuilder().imageLink(imageLinks.get(shipmentId)).build())));
+    cleanUpLateImages(imageLinks.keySet().stream()
+        .filter(shipmentId -> !updated.contains(shipmentId))
+        .toList());
+    return updated;
+  }
+
+  // an upload still on its way when the shipment was deleted is written after the deletion's
+  // cleanup has been queued, the Lambda notifies once it has stored the image and its
+  // thumbnails, so a cleanup queued now removes them all. If it cannot be queued, the whole
+  // batch of notifications comes back
+  private void cleanUpLateImages(List<String> deletedShipmentIds) {
+    var notifiedAt = Instant.now();
+    CompletableFuture.allOf(deletedShipmentIds.stream()
+            .map(shipmentId -> imageCleanupQueue.enqueue(shipmentId, notifiedAt))
+            .toArray(CompletableFuture[]::new))
+        .join();
   }
 }
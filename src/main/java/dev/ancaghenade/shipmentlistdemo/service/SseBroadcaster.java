@@ -0,0 +1,338 @@
+package dev.ancaghenade.shipmentlistdemo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter.SseEventBuilder;
+
+// pushes events to every connected client without holding up the caller. A broadcast is only
+// handed to the dispatcher thread, which puts the event into each subscriber's bounded queue;
+// the queues are drained on the SSE executor, one drain per subscriber at a time, so events
+// keep their order. Connections stay open, idle ones get a heartbeat so that proxies and
+// browsers do not give up on them.
+// Every event gets an id and as many recent ones are kept as a client's queue holds, a client
+// reconnecting with the id of the last event it has seen gets the ones it missed, or a reset
+// event if they are gone.
+// Clients may subscribe to some shipments only, an index from shipment id to subscribers keeps
+// the cost of an event down to the clients interested in it
+@Component
+public class SseBroadcaster {
+
+  public enum OverflowPolicy {
+    // a subscriber with a full queue loses its oldest event
+    DROP_OLDEST,
+    // a subscriber with a full queue is disconnected, EventSource connects again on its own
+    EVICT
+  }
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SseBroadcaster.class);
+
+  private static final String RESET_EVENT = "reset";
+  private static final int MAX_SHIPMENT_IDS = 1000;
+
+  private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+  private final Set<Subscriber> allShipmentsSubscribers = ConcurrentHashMap.newKeySet();
+  private final Map<String, Set<Subscriber>> subscribersByShipment = new ConcurrentHashMap<>();
+  // ids from before a restart, or from another instance, are told apart by this prefix
+  private final String streamId = Long.toString(System.currentTimeMillis(), 36);
+  // only touched by the dispatcher thread
+  private final Deque<BufferedEvent> recentEvents = new ArrayDeque<>();
+  private long lastSequence;
+
+  private final ExecutorService sseExecutor;
+  private final int queueCapacity;
+  private final OverflowPolicy overflowPolicy;
+  private final ScheduledExecutorService dispatcher;
+  private final Counter sentEvents;
+  private final Counter droppedEvents;
+  private final Counter evictions;
+  private final Counter replays;
+  private final Counter resets;
+
+  @Autowired
+  public SseBroadcaster(@Qualifier("sseExecutor") ExecutorService sseExecutor,
+      MeterRegistry meterRegistry,
+      @Value("${shipment.sse.queue-capacity:64}") int queueCapacity,
+      @Value("${shipment.sse.overflow:evict}") OverflowPolicy overflowPolicy,
+      @Value("${shipment.sse.heartbeat-interval:15s}") Duration heartbeatInterval) {
+    this.sseExecutor = sseExecutor;
+    this.queueCapacity = queueCapacity;
+    this.overflowPolicy = overflowPolicy;
+    this.sentEvents = meterRegistry.counter("shipment.sse.events", "result", "sent");
+    this.droppedEvents = meterRegistry.counter("shipment.sse.events", "result", "dropped");
+    this.evictions = meterRegistry.counter("shipment.sse.evictions");
+    this.replays = meterRegistry.counter("shipment.sse.reconnects", "result", "replayed");
+    this.resets = meterRegistry.counter("shipment.sse.reconnects", "result", "reset");
+    meterRegistry.gaugeCollectionSize("shipment.sse.subscribers", List.of(), subscribers);
+    meterRegistry.gaugeMapSize("shipment.sse.subscribed-shipments", List.of(),
+        subscribersByShipment);
+    this.dispatcher = Executors.newSingleThreadScheduledExecutor(
+        runnable -> new Thread(runnable, "sse-dispatcher"));
+    dispatcher.scheduleAtFixedRate(this::sendHeartbeats, heartbeatInterval.toMillis(),
+        heartbeatInterval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    dispatcher.shutdownNow();
+    subscribers.forEach(subscriber -> subscriber.emitter.complete());
+  }
+
+  // no shipment ids subscribe to the events of all shipments; lastEventId is null for a client
+  // connecting for the first time
+  public SseEmitter subscribe(Set<String> shipmentIds, String lastEventId) {
+    if (shipmentIds.size() > MAX_SHIPMENT_IDS) {
+      throw new IllegalStateException(
+          "Too many shipment ids to subscribe to. Number of ids: [" + shipmentIds.size() + "]");
+    }
+    var emitter = new SseEmitter(Long.MAX_VALUE);
+    var subscriber = new Subscriber(emitter, Set.copyOf(shipmentIds), queueCapacity);
+
+    emitter.onCompletion(() -> close(subscriber));
+    emitter.onTimeout(() -> {
+      close(subscriber);
+      emitter.complete();
+    });
+    emitter.onError(e -> close(subscriber));
+
+    // joins on the dispatcher thread, so no event is sent between the replay and the live ones.
+    // The client may go away on the container's thread meanwhile, a close that came before the
+    // add found nothing to remove, so the subscriber is taken out again here
+    dispatcher.execute(() -> {
+      if (subscriber.closed) {
+        return;
+      }
+      add(subscriber);
+      if (subscriber.closed) {
+        remove(subscriber);
+        return;
+      }
+      replay(subscriber, lastEventId);
+    });
+    return emitter;
+  }
+
+  // one event for shipments changed together, its data are their ids separated by commas;
+  // a client following some shipments only gets the ids of those
+  public void broadcast(Collection<String> shipmentIds) {
+    if (shipmentIds.isEmpty()) {
+      return;
+    }
+    var ids = List.copyOf(new LinkedHashSet<>(shipmentIds));
+    dispatcher.execute(() -> {
+      var event = new BufferedEvent(++lastSequence, ids);
+      recentEvents.addLast(event);
+      if (recentEvents.size() > queueCapacity) {
+        recentEvents.removeFirst();
+      }
+      allShipmentsSubscribers.forEach(
+          subscriber -> offer(subscriber, toSseEvent(event.sequence, event.shipmentIds)));
+      Map<Subscriber, List<String>> interested = new HashMap<>();
+      event.shipmentIds.forEach(shipmentId -> subscribersByShipment
+          .getOrDefault(shipmentId, Set.of())
+          .forEach(subscriber -> interested
+              .computeIfAbsent(subscriber, key -> new ArrayList<>()).add(shipmentId)));
+      interested.forEach(
+          (subscriber, subscribed) -> offer(subscriber, toSseEvent(event.sequence, subscribed)));
+    });
+  }
+
+  private void add(Subscriber subscriber) {
+    subscribers.add(subscriber);
+    if (subscriber.shipmentIds.isEmpty()) {
+      allShipmentsSubscribers.add(subscriber);
+    }
+    // the set is only created and left empty inside compute, so a concurrent removal cannot
+    // drop it while the subscriber is being added
+    subscriber.shipmentIds.forEach(shipmentId -> subscribersByShipment.compute(shipmentId,
+        (id, interested) -> {
+          var result = interested != null ? interested : ConcurrentHashMap.<Subscriber>newKeySet();
+          result.add(subscriber);
+          return result;
+        }));
+  }
+
+  private boolean remove(Subscriber subscriber) {
+    allShipmentsSubscribers.remove(subscriber);
+    subscriber.shipmentIds.forEach(shipmentId -> subscribersByShipment.computeIfPresent(
+        shipmentId, (id, interested) -> {
+          interested.remove(subscriber);
+          return interested.isEmpty() ? null : interested;
+        }));
+    return subscribers.remove(subscriber);
+  }
+
+  private void close(Subscriber subscriber) {
+    subscriber.closed = true;
+    remove(subscriber);
+  }
+
+  // a gap the buffer no longer covers is not replayed, the client is told to reload instead and
+  // continues from the current event. The buffer holds no more events than the client's queue,
+  // which is still empty here, so whatever it covers fits
+  private void replay(Subscriber subscriber, String lastEventId) {
+    if (lastEventId == null) {
+      return;
+    }
+    var sequence = toSequence(lastEventId);
+    var oldestSequence = recentEvents.isEmpty() ? lastSequence + 1
+        : recentEvents.getFirst().sequence;
+    var missed = sequence.isEmpty() ? List.<SseEventBuilder>of() : recentEvents.stream()
+        .filter(event -> event.sequence > sequence.getAsLong())
+        .filter(event -> !subscriber.subscribedOf(event.shipmentIds).isEmpty())
+        .map(event -> toSseEvent(event.sequence, subscriber.subscribedOf(event.shipmentIds)))
+        .toList();
+    if (sequence.isEmpty() || sequence.getAsLong() > lastSequence
+        || sequence.getAsLong() < oldestSequence - 1) {
+      resets.increment();
+      offer(subscriber, SseEmitter.event()
+          .name(RESET_EVENT)
+          .id(toEventId(lastSequence))
+          .data(RESET_EVENT));
+      return;
+    }
+    replays.increment();
+    missed.forEach(event -> offer(subscriber, event));
+  }
+
+  private SseEventBuilder toSseEvent(long sequence, List<String> shipmentIds) {
+    return SseEmitter.event().id(toEventId(sequence)).data(String.join(",", shipmentIds));
+  }
+
+  private String toEventId(long sequence) {
+    return streamId + "-" + sequence;
+  }
+
+  // empty for ids of another stream
+  private OptionalLong toSequence(String eventId) {
+    var separator = eventId.lastIndexOf('-');
+    if (separator < 0 || !eventId.substring(0, separator).equals(streamId)) {
+      return OptionalLong.empty();
+    }
+    try {
+      return OptionalLong.of(Long.parseLong(eventId.substring(separator + 1)));
+    } catch (NumberFormatException e) {
+      return OptionalLong.empty();
+    }
+  }
+
+  // subscribers with events still queued do not need one
+  private void sendHeartbeats() {
+    subscribers.stream()
+        .filter(subscriber -> subscriber.queue.isEmpty())
+        .forEach(subscriber -> offer(subscriber, SseEmitter.event().comment("heartbeat")));
+  }
+
+  // only called on the dispatcher thread
+  private void offer(Subscriber subscriber, SseEventBuilder event) {
+    if (!subscriber.queue.offer(event)) {
+      if (overflowPolicy == OverflowPolicy.EVICT) {
+        evict(subscriber);
+        return;
+      }
+      // the drain may have taken an event in the meantime, then nothing is dropped
+      if (subscriber.queue.poll() != null) {
+        droppedEvents.increment();
+      }
+      subscriber.queue.offer(event);
+    }
+    scheduleDrain(subscriber);
+  }
+
+  private void scheduleDrain(Subscriber subscriber) {
+    if (subscriber.draining.compareAndSet(false, true)) {
+      sseExecutor.execute(() -> drain(subscriber));
+    }
+  }
+
+  private void drain(Subscriber subscriber) {
+    try {
+      SseEventBuilder event;
+      while (subscribers.contains(subscriber) && (event = subscriber.queue.poll()) != null) {
+        subscriber.emitter.send(event);
+        sentEvents.increment();
+      }
+    } catch (IOException | IllegalStateException e) {
+      // the client is gone, or the emitter was completed while events were queued
+      remove(subscriber);
+      subscriber.queue.clear();
+      return;
+    }
+    subscriber.draining.set(false);
+    // an event offered after the last poll, but before the flag was cleared
+    if (!subscriber.queue.isEmpty()) {
+      scheduleDrain(subscriber);
+    }
+  }
+
+  // the emitter is completed off the dispatcher thread, a send still blocked on the slow client
+  // holds the emitter's lock
+  private void evict(Subscriber subscriber) {
+    if (remove(subscriber)) {
+      evictions.increment();
+      droppedEvents.increment(subscriber.queue.size() + 1);
+      subscriber.queue.clear();
+      LOGGER.warn("Disconnecting a client that could not keep up with the events");
+      sseExecutor.execute(subscriber.emitter::complete);
+    }
+  }
+
+  private static class Subscriber {
+
+    private final SseEmitter emitter;
+    // empty for all shipments
+    private final Set<String> shipmentIds;
+    private final BlockingQueue<SseEventBuilder> queue;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private Subscriber(SseEmitter emitter, Set<String> shipmentIds, int queueCapacity) {
+      this.emitter = emitter;
+      this.shipmentIds = shipmentIds;
+      this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    private List<String> subscribedOf(List<String> changed) {
+      return shipmentIds.isEmpty() ? changed
+          : changed.stream().filter(shipmentIds::contains).toList();
+    }
+  }
+
+  private static class BufferedEvent {
+
+    private final long sequence;
+    private final List<String> shipmentIds;
+
+    private BufferedEvent(long sequence, List<String> shipmentIds) {
+      this.sequence = sequence;
+      this.shipmentIds = shipmentIds;
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package dev.ancaghenade.shipmentlistdemo.util;
+
+import static java.lang.String.format;
+
+import java.util.List;
+import java.util.OptionalInt;
+
+// the validator Lambda stores downscaled copies of every processed image next to it, as
+// "<shipmentId>/thumbnails/<width>/<fileName>" for "<shipmentId>/<fileName>"
+public class ImageThumbnails {
+
+  private static final String THUMBNAILS = "thumbnails";
+
+  private ImageThumbnails() {
+    throw new IllegalStateException("Utility class");
+  }
+
+  public static String thumbnailKey(String imageKey, int width) {
+    var separator = imageKey.lastIndexOf("/");
+    return format("%s%s/%d/%s", imageKey.substring(0, separator + 1), THUMBNAILS, width,
+        imageKey.substring(separator + 1));
+  }
+
+  // the narrowest thumbnail that is at least as wide as asked for, so none is scaled up by the
+  // client; empty when only the original is wide enough
+  public static OptionalInt closestWidth(List<Integer> widths, int width) {
+    return widths.stream()
+        .mapToInt(Integer::intValue)
+        .filter(thumbnailWidth -> thumbnailWidth >= width)
+        .min();
+  }
+}
@@ -0,0 +1,74 @@
+package dev.ancaghenade.shipmentlistdemo.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import org.json.JSONException;
+import org.json.JSONObject;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+// turns a DynamoDB LastEvaluatedKey into an opaque, URL-safe token and back
+public class PageCursor {
+
+  private PageCursor() {
+    throw new IllegalStateException("Utility class");
+  }
+
+  public static String encode(Map<String, AttributeValue> lastEvaluatedKey) {
+    if (Objects.isNull(lastEvaluatedKey) || lastEvaluatedKey.isEmpty()) {
+      return null;
+    }
+    var json = new JSONObject();
+    lastEvaluatedKey.forEach((name, value) -> json.put(name, toJson(value)));
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(json.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  public static Map<String, AttributeValue> decode(String cursor) {
+    if (Objects.isNull(cursor) || cursor.isBlank()) {
+      return null;
+    }
+    try {
+      var json = new JSONObject(
+          new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+      Map<String, AttributeValue> key = new HashMap<>();
+      for (var name : json.keySet()) {
+        key.put(name, fromJson(json.getJSONObject(name)));
+      }
+      return key;
+    } catch (IllegalArgumentException | JSONException e) {
+      throw new IllegalStateException("Invalid page cursor: " + cursor, e);
+    }
+  }
+
+  // key attributes can only be strings, numbers or binary
+  private static JSONObject toJson(AttributeValue value) {
+    if (Objects.nonNull(value.s())) {
+      return new JSONObject().put("S", value.s());
+    }
+    if (Objects.nonNull(value.n())) {
+      return new JSONObject().put("N", value.n());
+    }
+    if (Objects.nonNull(value.b())) {
+      return new JSONObject().put("B", Base64.getEncoder().encodeToString(value.b().asByteArray()));
+    }
+    throw new IllegalStateException("Unsupported key attribute type: " + value.type());
+  }
+
+  private static AttributeValue fromJson(JSONObject json) {
+    if (json.has("S")) {
+      return AttributeValue.builder().s(json.getString("S")).build();
+    }
+    if (json.has("N")) {
+      return AttributeValue.builder().n(json.getString("N")).build();
+    }
+    if (json.has("B")) {
+      return AttributeValue.builder()
+          .b(SdkBytes.fromByteArray(Base64.getDecoder().decode(json.getString("B")))).build();
+    }
+    throw new IllegalStateException("Unsupported key attribute in page cursor: " + json);
+  }
+}
@@ -0,0 +1,27 @@
+package dev.ancaghenade.shipmentlistdemo.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// the project still compiles for Java 17, so virtual threads are looked up at runtime
+// and are only available when the application runs on Java 21 or later
+public class VirtualThreads {
+
+  private VirtualThreads() {
+    throw new IllegalStateException("Utility class");
+  }
+
+  // one new virtual thread per task, nothing is pooled
+  public static ExecutorService newExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(
+          "Virtual threads need Java 21 or later, running on " + Runtime.version(), e);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("Could not create a virtual thread executor", e);
+    }
+  }
+}
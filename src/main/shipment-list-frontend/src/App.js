@@ -5,10 +5,14 @@ import './App.css';
 import SSEManager from './SSEManager';
 import placeholder from './placeholder.jpg';
 
+// the width images are shown at in the list, in CSS pixels
+const IMAGE_WIDTH = 320;
+
 const Shipments = () => {
   const [shipments, setShipments] = useState([]);
   const [isFetchingComplete, setIsFetchingComplete] = useState(false);
-  const [refreshKey, setRefreshKey] = useState(0); // hack0: Add refreshKey state to force refresh
+  // bumped per shipment when its picture changes, so only that image is fetched again
+  const [imageVersions, setImageVersions] = useState({});
 
   const fetchShipments = () => {
     axios.get("http://localhost:8081/api/shipment").then(res => {
@@ -16,8 +20,6 @@ const Shipments = () => {
       setShipments(res.data)
     }).then(() => {
       setIsFetchingComplete(true);
-      setRefreshKey((prevKey) => prevKey + 1); // Update refreshKey
-
     })
     .catch((error) => {
       console.log(error);
@@ -41,18 +43,49 @@ const Shipments = () => {
 
   const refreshShipmentPicture = (shipmentId) => {
     if(shipments.some((shp) => shp.shipmentId === shipmentId)) {
-      setShipments(shipments);
-      setRefreshKey((prevKey) => prevKey + 1); // Update refreshKey
+      setImageVersions((versions) => ({
+        ...versions,
+        [shipmentId]: (versions[shipmentId] || 0) + 1
+      }));
+      // picks up the new image link of this shipment only
+      axios.get(`http://localhost:8081/api/shipment/${shipmentId}`).then(res => {
+        setShipments((current) => current.map(
+            (shp) => shp.shipmentId === shipmentId ? res.data : shp));
+      }).catch(err => {
+        console.log(err)
+      });
+    }
+  }
+
+  // images addressed by their link are cached by the browser, the server marks processed ones
+  // immutable; the version only changes the URL after a push for that shipment.
+  // The list only needs a thumbnail as wide as the image is shown on screen
+  const imageUrl = (shipment) => {
+    const version = imageVersions[shipment.shipmentId];
+    const width = Math.round(IMAGE_WIDTH * (window.devicePixelRatio || 1));
+    const query = `?width=${width}` + (version ? `&v=${version}` : "");
+    if (shipment.imageLink) {
+      const fileName = shipment.imageLink.substring(shipment.imageLink.indexOf("/") + 1);
+      return `http://localhost:8081/api/shipment/${shipment.shipmentId}/image/${encodeURIComponent(fileName)}${query}`;
     }
+    return `http://localhost:8081/api/shipment/${shipment.shipmentId}/image/download${query}`;
   }
 
+  // an event carries the ids of all shipments changed by one batch of updates
   const handleSSEEvent = (data) => {
     if (isFetchingComplete) {
-      refreshShipmentPicture(data);
+      data.split(",").forEach(shipmentId => refreshShipmentPicture(shipmentId));
       console.log("Message: " + data);
     }
   }
 
+  // events were missed and could not be replayed, so the whole list is loaded again
+  const handleSSEReset = () => {
+    if (isFetchingComplete) {
+      fetchShipments();
+    }
+  }
+
   const handleSSEError = (event) => {
     console.log("On error handler: " + event.target.readyState);
     if (event.target.readyState === EventSource.CLOSED) {
@@ -61,8 +94,9 @@ const Shipments = () => {
   }
 
   return (
-      <div key={refreshKey}>
-        <SSEManager onEvent={handleSSEEvent} onError={handleSSEError}/>
+      <div>
+        <SSEManager onEvent={handleSSEEvent} onReset={handleSSEReset}
+                    onError={handleSSEError}/>
 
         {shipments.map((shipment, index) => (
             <div key={index} style={{
@@ -72,8 +106,9 @@ const Shipments = () => {
             }}>
               <div>
                 <Dropzone {...shipment}/>
-                <img src={`http://localhost:8081/api/shipment/${shipment.shipmentId}/image/download?t=${Date.now()}`} //hack1: cache busting to refresh
+                <img src={imageUrl(shipment)}
                      alt={placeholder}
+                     width={IMAGE_WIDTH}
                      style={{objectFit: "contain"}}/>
 
               </div>
@@ -114,17 +149,30 @@ function Dropzone(
   const onDrop = useCallback(acceptedFiles => {
     const file = acceptedFiles[0];
     console.log(file);
-    const formData = new FormData();
-    formData.append("file", file);
+    const contentType = file.type || "application/octet-stream";
 
+    // the image goes straight to S3 with a presigned URL and is confirmed afterwards
     axios.post(
-        `http://localhost:8081/api/shipment/${shipmentId}/image/upload`,
-        formData,
+        `http://localhost:8081/api/shipment/${shipmentId}/image/upload-url`,
+        null,
         {
-          headers: {
-            "Content-Type": "multipart/form-data"
+          params: {
+            fileName: file.name,
+            contentType: contentType,
+            contentLength: file.size
           }
-        }).then(() => {
+        }).then(res => {
+      const upload = res.data;
+      // the browser sets the content length on its own
+      const headers = Object.fromEntries(Object.entries(upload.headers)
+          .filter(([name]) => name.toLowerCase() !== "content-length")
+          .map(([name, values]) => [name, values.join(",")]));
+      return axios.put(upload.url, file, {headers: headers})
+          .then(() => axios.post(
+              `http://localhost:8081/api/shipment/${shipmentId}/image/confirm`,
+              null,
+              {params: {imageLink: upload.imageLink}}));
+    }).then(() => {
       console.log("File upload succeeded.")
     }).catch(err => {
       console.log(err)
@@ -1,20 +1,34 @@
 import {useEffect, useRef} from "react";
 
-const SSEManager = ({ onEvent, onError }) => {
+const SSEManager = ({ onEvent, onReset, onError }) => {
   const eventSourceRef = useRef(null);
+  // the handlers change with every render, the connection should not
+  const handlersRef = useRef({onEvent, onReset, onError});
+  handlersRef.current = {onEvent, onReset, onError};
+  // EventSource resends it on its own reconnects, a new connection passes it along itself
+  const lastEventIdRef = useRef(null);
 
   useEffect(() => {
     // Create the SSE connection
-    eventSourceRef.current = new EventSource('http://localhost:8081/push-endpoint');
+    const query = lastEventIdRef.current
+        ? `?lastEventId=${encodeURIComponent(lastEventIdRef.current)}` : "";
+    eventSourceRef.current = new EventSource(`http://localhost:8081/push-endpoint${query}`);
 
     // Event listener for SSE messages
     eventSourceRef.current.onmessage = (event) => {
-      onEvent(event.data);
+      lastEventIdRef.current = event.lastEventId;
+      handlersRef.current.onEvent(event.data);
     };
 
+    // the events missed while disconnected could not be replayed
+    eventSourceRef.current.addEventListener("reset", (event) => {
+      lastEventIdRef.current = event.lastEventId;
+      handlersRef.current.onReset();
+    });
+
     // Error listener for SSE connection errors
     eventSourceRef.current.onerror = (error) => {
-      onError(error);
+      handlersRef.current.onError(error);
     };
 
     // Clean up the SSE connection on component unmount
@@ -23,9 +37,9 @@ const SSEManager = ({ onEvent, onError }) => {
         eventSourceRef.current.close();
       }
     };
-  }, [onEvent, onError]);
+  }, []);
 
   return null;
 };
 
-export default SSEManager;
\ No newline at end of file
+export default SSEManager;
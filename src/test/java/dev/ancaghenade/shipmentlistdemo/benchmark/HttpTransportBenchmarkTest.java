@@ -0,0 +1,189 @@
+package dev.ancaghenade.shipmentlistdemo.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.ancaghenade.shipmentlistdemo.config.AwsHttpTransport;
+import dev.ancaghenade.shipmentlistdemo.config.AwsHttpTransport.Profile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+
+// compares the transport profiles with DynamoDB GetItem calls against a local stand-in endpoint
+// that answers after a fixed delay; more callers than pooled connections, so pool waits show up
+// run with: mvn test -Dtest=HttpTransportBenchmarkTest -Dbenchmark=true
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class HttpTransportBenchmarkTest {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(HttpTransportBenchmarkTest.class);
+
+  private static final int MAX_CONNECTIONS = 32;
+  private static final int CALLERS = 64;
+  private static final int REQUESTS_PER_CALLER = 200;
+  private static final int WARM_UP_REQUESTS = 500;
+  private static final long SERVICE_DELAY_MILLIS = 5;
+  private static final String ITEM = "{\"Item\":{\"shipmentId\":{\"S\":\"benchmark\"}}}";
+
+  private static HttpServer standIn;
+  private static ExecutorService standInExecutor;
+  private static URI endpoint;
+
+  private final GetItemRequest request = GetItemRequest.builder()
+      .tableName("shipment")
+      .key(Map.of("shipmentId", AttributeValue.fromS("benchmark")))
+      .build();
+
+  @BeforeAll
+  static void startStandIn() throws IOException {
+    standInExecutor = Executors.newFixedThreadPool(CALLERS * 2);
+    standIn = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), CALLERS * 2);
+    standIn.createContext("/", HttpTransportBenchmarkTest::answer);
+    standIn.setExecutor(standInExecutor);
+    standIn.start();
+    endpoint = URI.create("http://127.0.0.1:" + standIn.getAddress().getPort());
+  }
+
+  @AfterAll
+  static void stopStandIn() {
+    standIn.stop(0);
+    standInExecutor.shutdownNow();
+  }
+
+  @Test
+  void compareTransportProfiles() throws Exception {
+    var results = new ArrayList<String>();
+    for (var profile : Profile.values()) {
+      results.add(runSync(profile));
+      if (profile != Profile.URL_CONNECTION) {
+        // URL_CONNECTION uses the same Netty client as APACHE for async calls
+        results.add(runAsync(profile));
+      }
+    }
+    LOGGER.info("\n{}\n{}", String.format("%-16s %-6s %10s %8s %8s %14s",
+        "profile", "mode", "req/s", "p50 ms", "p99 ms", "max pool wait"),
+        String.join("\n", results));
+  }
+
+  private String runSync(Profile profile) throws Exception {
+    var meterRegistry = new SimpleMeterRegistry();
+    var transport = transport(profile, meterRegistry);
+    try (var client = DynamoDbClient.builder()
+        .region(Region.US_EAST_1)
+        .credentialsProvider(credentials())
+        .endpointOverride(endpoint)
+        .httpClientBuilder(transport.httpClientBuilder())
+        .overrideConfiguration(transport.overrideConfiguration("benchmark", Duration.ofSeconds(30),
+            Duration.ofSeconds(10)))
+        .build()) {
+      return measure(profile, "sync", meterRegistry,
+          () -> CompletableFuture.completedFuture(client.getItem(request)));
+    }
+  }
+
+  private String runAsync(Profile profile) throws Exception {
+    var meterRegistry = new SimpleMeterRegistry();
+    var transport = transport(profile, meterRegistry);
+    try (var client = DynamoDbAsyncClient.builder()
+        .region(Region.US_EAST_1)
+        .credentialsProvider(credentials())
+        .endpointOverride(endpoint)
+        .httpClientBuilder(transport.asyncHttpClientBuilder())
+        .overrideConfiguration(transport.overrideConfiguration("benchmark", Duration.ofSeconds(30),
+            Duration.ofSeconds(10)))
+        .build()) {
+      return measure(profile, "async", meterRegistry, () -> client.getItem(request));
+    }
+  }
+
+  private String measure(Profile profile, String mode, SimpleMeterRegistry meterRegistry,
+      Supplier<CompletableFuture<?>> call) throws Exception {
+    for (var i = 0; i < WARM_UP_REQUESTS; i++) {
+      call.get().join();
+    }
+
+    var latencies = new long[CALLERS * REQUESTS_PER_CALLER];
+    var next = new AtomicInteger();
+    var callers = Executors.newFixedThreadPool(CALLERS);
+    var started = System.nanoTime();
+    List<CompletableFuture<Void>> running = new ArrayList<>();
+    for (var c = 0; c < CALLERS; c++) {
+      running.add(CompletableFuture.runAsync(() -> {
+        for (var r = 0; r < REQUESTS_PER_CALLER; r++) {
+          var sent = System.nanoTime();
+          call.get().join();
+          latencies[next.getAndIncrement()] = System.nanoTime() - sent;
+        }
+      }, callers));
+    }
+    CompletableFuture.allOf(running.toArray(CompletableFuture[]::new)).join();
+    var elapsed = System.nanoTime() - started;
+    callers.shutdown();
+    callers.awaitTermination(10, TimeUnit.SECONDS);
+
+    assertEquals(latencies.length, next.get());
+    Arrays.sort(latencies);
+    var acquire = meterRegistry.find("aws.http.pool.acquire").timer();
+    // URLConnection reports no pool metrics
+    return String.format("%-16s %-6s %10.0f %8.2f %8.2f %14s", profile, mode,
+        latencies.length / (elapsed / 1e9),
+        percentile(latencies, 0.50), percentile(latencies, 0.99),
+        acquire == null || acquire.count() == 0 ? "n/a"
+            : String.format("%.2f ms", acquire.max(TimeUnit.MILLISECONDS)));
+  }
+
+  private static AwsHttpTransport transport(Profile profile, SimpleMeterRegistry meterRegistry) {
+    return new AwsHttpTransport(profile, MAX_CONNECTIONS, Duration.ofSeconds(2),
+        Duration.ofSeconds(30), Duration.ofSeconds(5), Duration.ofSeconds(60),
+        Duration.ofSeconds(30), meterRegistry);
+  }
+
+  private static StaticCredentialsProvider credentials() {
+    return StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test"));
+  }
+
+  private static double percentile(long[] sortedNanos, double percentile) {
+    return sortedNanos[(int) Math.ceil(percentile * sortedNanos.length) - 1] / 1e6;
+  }
+
+  private static void answer(HttpExchange exchange) throws IOException {
+    exchange.getRequestBody().readAllBytes();
+    try {
+      Thread.sleep(SERVICE_DELAY_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    var body = ITEM.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/x-amz-json-1.0");
+    exchange.sendResponseHeaders(200, body.length);
+    try (var out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package dev.ancaghenade.shipmentlistdemo.integrationtests;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+
+// the app is one instance of the cluster, a queue subscribed to the events topic by the test
+// stands in for another one; a second queue, not tagged for long, for an instance that crashed
+@TestPropertySource(properties = "shipment.cluster.enabled=true")
+@DirtiesContext
+public class ClusterEventRelayIntegrationTest extends LocalStackSetupConfigurations {
+
+  private static final String PEER_QUEUE = "shipment_events_peer";
+  private static final String CRASHED_QUEUE = "shipment_events_crashed";
+  private static String eventsTopicArn;
+
+  @BeforeAll
+  public static void setup() {
+    LocalStackSetupConfigurations.setupConfig();
+
+    localStack.followOutput(logConsumer);
+
+    createClients();
+
+    createDynamoDBResources();
+    createSQS();
+
+    eventsTopicArn = snsClient.createTopic(request -> request.name("shipment_events_topic"))
+        .topicArn();
+    subscribeQueue(PEER_QUEUE, System.currentTimeMillis());
+    subscribeQueue(CRASHED_QUEUE, 0);
+  }
+
+  // tagged with a heartbeat, as every instance does with its queue
+  private static void subscribeQueue(String queueName, long heartbeat) {
+    var queueUrl = sqsClient.createQueue(request -> request
+            .queueName(queueName)
+            .tags(Map.of("heartbeat", Long.toString(heartbeat))))
+        .queueUrl();
+    var queueArn = sqsClient.getQueueAttributes(request -> request
+            .queueUrl(queueUrl)
+            .attributeNames(QueueAttributeName.QUEUE_ARN))
+        .attributes()
+        .get(QueueAttributeName.QUEUE_ARN);
+    snsClient.subscribe(request -> request
+        .topicArn(eventsTopicArn)
+        .protocol("sqs")
+        .endpoint(queueArn)
+        .attributes(Map.of("RawMessageDelivery", "true")));
+  }
+
+  @AfterAll
+  public static void tearDown() {
+    snsClient.close();
+    sqsClient.close();
+    iamClient.close();
+    lambdaClient.close();
+  }
+
+  @DynamicPropertySource
+  static void clusterConfigs(DynamicPropertyRegistry registry) {
+    registry.add("shipment.cluster.topic-arn", () -> eventsTopicArn);
+  }
+
+  @Test
+  void testEventReachesEveryInstance() throws Exception {
+    var shipmentId = "3317ac4f-1f9b-4bab-a974-4aa9876d5547";
+    var imageLink = shipmentId + "/cat.jpg";
+
+    // this instance's queue is subscribed once the app is ready
+    var instanceQueues = sqsClient.listQueues(request -> request
+        .queueNamePrefix("shipment_events_")).queueUrls();
+    assertTrue(instanceQueues.stream().anyMatch(url -> !url.endsWith(PEER_QUEUE)));
+
+    var events = HttpClient.newHttpClient().sendAsync(
+        HttpRequest.newBuilder(URI.create(BASE_URL + "/push-endpoint?shipmentIds=" + shipmentId))
+            .build(),
+        HttpResponse.BodyHandlers.ofLines());
+    var sseEndpointResponse = events.get(10, TimeUnit.SECONDS);
+    assertEquals(HttpStatus.OK.value(), sseEndpointResponse.statusCode());
+
+    // the notification as the topic of the validator Lambda delivers it
+    var updateQueueUrl = sqsClient.getQueueUrl(
+        request -> request.queueName("update_shipment_picture_queue")).queueUrl();
+    sqsClient.sendMessage(request -> request
+        .queueUrl(updateQueueUrl)
+        .messageBody(new JSONObject().put("Message", imageLink).toString()));
+
+    // pushed to the clients of this instance through its own queue
+    var received = CompletableFuture.supplyAsync(
+        () -> sseEndpointResponse.body().anyMatch(line -> line.contains(shipmentId)));
+    assertTrue(received.get(60, TimeUnit.SECONDS));
+
+    // and delivered to the other instance as well
+    var peerQueueUrl = sqsClient.getQueueUrl(request -> request.queueName(PEER_QUEUE))
+        .queueUrl();
+    var messages = sqsClient.receiveMessage(request -> request
+        .queueUrl(peerQueueUrl)
+        .waitTimeSeconds(20)).messages();
+    assertEquals(1, messages.size());
+    var shipmentIds = new JSONObject(messages.get(0).body()).getJSONArray("shipmentIds");
+    assertEquals(1, shipmentIds.length());
+    assertEquals(shipmentId, shipmentIds.getString(0));
+
+    // the update itself is stored
+    var item = dynamoDbClient.getItem(request -> request
+        .tableName("shipment")
+        .key(Map.of("shipmentId", AttributeValue.builder().s(shipmentId).build()))).item();
+    assertEquals(imageLink, item.get("imageLink").s());
+  }
+
+  @Test
+  void testQueueOfCrashedInstanceRemoved() throws Exception {
+    // removed once the app is ready, along with its subscription
+    var crashedQueueLeft = true;
+    for (int attempt = 0; attempt < 30 && crashedQueueLeft; attempt++) {
+      crashedQueueLeft = queueNames().contains(CRASHED_QUEUE)
+          || subscribedQueueNames().contains(CRASHED_QUEUE);
+      if (crashedQueueLeft) {
+        Thread.sleep(1000);
+      }
+    }
+    assertFalse(crashedQueueLeft);
+
+    // the instances still alive keep theirs
+    assertTrue(queueNames().contains(PEER_QUEUE));
+    assertTrue(subscribedQueueNames().contains(PEER_QUEUE));
+  }
+
+  private static List<String> queueNames() {
+    return sqsClient.listQueues(request -> request.queueNamePrefix("shipment_events_"))
+        .queueUrls().stream()
+        .map(url -> url.substring(url.lastIndexOf('/') + 1))
+        .toList();
+  }
+
+  private static List<String> subscribedQueueNames() {
+    return snsClient.listSubscriptionsByTopic(request -> request.topicArn(eventsTopicArn))
+        .subscriptions().stream()
+        .map(subscription -> subscription.endpoint()
+            .substring(subscription.endpoint().lastIndexOf(':') + 1))
+        .toList();
+  }
+
+}
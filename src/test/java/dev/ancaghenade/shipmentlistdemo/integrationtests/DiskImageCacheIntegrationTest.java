@@ -0,0 +1,117 @@
+package dev.ancaghenade.shipmentlistdemo.integrationtests;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+// a processed image is copied to local disk after its first download, later downloads are
+// answered from the file, whole ones by Tomcat's sendfile
+@ActiveProfiles("dev")
+@TestPropertySource(properties = "shipment.disk-cache.enabled=true")
+@DirtiesContext
+class DiskImageCacheIntegrationTest extends LocalStackSetupConfigurations {
+
+  private static final String SHIPMENT_ID = "3317ac4f-1f9b-4bab-a974-4aa9876d5547";
+  private static final String IMAGE_LINK = SHIPMENT_ID + "/cat.jpg";
+  private static Path directory;
+  private static byte[] image;
+
+  @BeforeAll
+  public static void setup() throws IOException {
+    LocalStackSetupConfigurations.setupConfig();
+
+    localStack.followOutput(logConsumer);
+
+    createClients();
+
+    createS3Bucket();
+    createDynamoDBResources();
+
+    directory = Files.createTempDirectory("shipment-images");
+    image = Files.readAllBytes(Path.of("src/test/java/resources/cat.jpg"));
+    // marked as processed the way the validator Lambda does it, only those go to disk
+    s3Client.putObject(request -> request
+            .bucket(BUCKET_NAME)
+            .key(IMAGE_LINK)
+            .contentType("image/jpeg")
+            .metadata(Map.of("exclude-lambda", "true")),
+        RequestBody.fromBytes(image));
+    dynamoDbClient.updateItem(request -> request
+        .tableName("shipment")
+        .key(Map.of("shipmentId", AttributeValue.builder().s(SHIPMENT_ID).build()))
+        .updateExpression("SET imageLink = :imageLink")
+        .expressionAttributeValues(
+            Map.of(":imageLink", AttributeValue.builder().s(IMAGE_LINK).build())));
+  }
+
+  @AfterAll
+  public static void tearDown() {
+    sqsClient.close();
+    snsClient.close();
+    iamClient.close();
+    lambdaClient.close();
+  }
+
+  @DynamicPropertySource
+  static void diskCacheConfigs(DynamicPropertyRegistry registry) {
+    registry.add("shipment.disk-cache.directory", () -> directory.toString());
+  }
+
+  @Test
+  void testImageServedFromDisk() throws Exception {
+    var url = BASE_URL + "/api/shipment/" + SHIPMENT_ID + "/image/cat.jpg";
+
+    // from S3, the copy to disk is made in the background
+    var fromS3 = restTemplate.getForEntity(url, byte[].class);
+    assertEquals(HttpStatus.OK, fromS3.getStatusCode());
+    assertArrayEquals(image, fromS3.getBody());
+    var stored = false;
+    for (int attempt = 0; attempt < 30 && !stored; attempt++) {
+      Thread.sleep(500);
+      try (Stream<Path> files = Files.list(directory)) {
+        stored = files.anyMatch(file -> file.toString().endsWith(".img"));
+      }
+    }
+    assertTrue(stored);
+
+    // the file holds a trailer after the image, only the image is sent
+    var fromDisk = restTemplate.getForEntity(url, byte[].class);
+    assertEquals(HttpStatus.OK, fromDisk.getStatusCode());
+    assertEquals(image.length, fromDisk.getHeaders().getContentLength());
+    assertArrayEquals(image, fromDisk.getBody());
+    assertEquals(fromS3.getHeaders().getETag(), fromDisk.getHeaders().getETag());
+
+    // ranges are cut from the file as well
+    var headers = new HttpHeaders();
+    headers.set(HttpHeaders.RANGE, "bytes=-10");
+    var lastBytes = restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers),
+        byte[].class);
+    assertEquals(HttpStatus.PARTIAL_CONTENT, lastBytes.getStatusCode());
+    assertEquals(String.format("bytes %d-%d/%d", image.length - 10, image.length - 1,
+        image.length), lastBytes.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    assertArrayEquals(Arrays.copyOfRange(image, image.length - 10, image.length),
+        lastBytes.getBody());
+  }
+
+}
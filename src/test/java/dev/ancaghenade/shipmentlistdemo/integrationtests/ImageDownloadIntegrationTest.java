@@ -0,0 +1,177 @@
+package dev.ancaghenade.shipmentlistdemo.integrationtests;
+
+import static java.lang.String.format;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+// the image is put into the bucket directly, marked as processed the way the validator Lambda
+// does it, and linked to the shipment
+@ActiveProfiles("dev")
+class ImageDownloadIntegrationTest extends LocalStackSetupConfigurations {
+
+  private static final String SHIPMENT_ID = "3317ac4f-1f9b-4bab-a974-4aa9876d5547";
+  private static final String IMAGE_LINK = SHIPMENT_ID + "/cat.jpg";
+  private static byte[] image;
+
+  @BeforeAll
+  public static void setup() throws IOException {
+    LocalStackSetupConfigurations.setupConfig();
+
+    localStack.followOutput(logConsumer);
+
+    createClients();
+
+    createS3Bucket();
+    createDynamoDBResources();
+
+    image = Files.readAllBytes(Path.of("src/test/java/resources/cat.jpg"));
+    s3Client.putObject(request -> request
+            .bucket(BUCKET_NAME)
+            .key(IMAGE_LINK)
+            .contentType("image/jpeg")
+            .metadata(Map.of("exclude-lambda", "true")),
+        RequestBody.fromBytes(image));
+    dynamoDbClient.updateItem(request -> request
+        .tableName("shipment")
+        .key(Map.of("shipmentId", AttributeValue.builder().s(SHIPMENT_ID).build()))
+        .updateExpression("SET imageLink = :imageLink")
+        .expressionAttributeValues(
+            Map.of(":imageLink", AttributeValue.builder().s(IMAGE_LINK).build())));
+  }
+
+  @AfterAll
+  public static void tearDown() {
+    sqsClient.close();
+    snsClient.close();
+    iamClient.close();
+    lambdaClient.close();
+  }
+
+  @Test
+  void testFirstBytes() {
+    var responseEntity = download("bytes=0-9");
+
+    assertEquals(HttpStatus.PARTIAL_CONTENT, responseEntity.getStatusCode());
+    assertEquals("bytes 0-9/" + image.length,
+        responseEntity.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    assertEquals(10, responseEntity.getHeaders().getContentLength());
+    assertArrayEquals(Arrays.copyOfRange(image, 0, 10), responseEntity.getBody());
+  }
+
+  @Test
+  void testLastBytes() {
+    var responseEntity = download("bytes=-10");
+
+    assertEquals(HttpStatus.PARTIAL_CONTENT, responseEntity.getStatusCode());
+    assertEquals(format("bytes %d-%d/%d", image.length - 10, image.length - 1, image.length),
+        responseEntity.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    assertEquals(10, responseEntity.getHeaders().getContentLength());
+    assertArrayEquals(Arrays.copyOfRange(image, image.length - 10, image.length),
+        responseEntity.getBody());
+  }
+
+  @Test
+  void testRangeOutsideOfImage() {
+    var responseEntity = download(format("bytes=%d-", image.length + 100));
+
+    assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, responseEntity.getStatusCode());
+  }
+
+  @Test
+  void testImageNotModified() {
+    var url = BASE_URL + "/api/shipment/" + SHIPMENT_ID + "/image/download";
+    var responseEntity = restTemplate.getForEntity(url, byte[].class);
+
+    assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+    assertArrayEquals(image, responseEntity.getBody());
+    var eTag = responseEntity.getHeaders().getETag();
+    assertNotNull(eTag);
+    // the shipment may get another image, so caches have to ask again
+    assertEquals("no-cache", responseEntity.getHeaders().getCacheControl());
+
+    var notModified = getIfNoneMatch(url, eTag);
+    assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+    assertEquals(eTag, notModified.getHeaders().getETag());
+    assertNull(notModified.getBody());
+  }
+
+  @Test
+  void testImageByLinkNotModified() {
+    var url = BASE_URL + "/api/shipment/" + SHIPMENT_ID + "/image/cat.jpg";
+    var responseEntity = restTemplate.getForEntity(url, byte[].class);
+
+    assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+    assertArrayEquals(image, responseEntity.getBody());
+    var eTag = responseEntity.getHeaders().getETag();
+    assertNotNull(eTag);
+    assertTrue(responseEntity.getHeaders().getCacheControl().contains("immutable"));
+
+    var notModified = getIfNoneMatch(url, eTag);
+    assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+    assertEquals(eTag, notModified.getHeaders().getETag());
+    assertNull(notModified.getBody());
+  }
+
+  @Test
+  void testImageByLinkOfOtherFileRefused() {
+    // the object exists, but it is not the image of the shipment
+    s3Client.putObject(request -> request
+            .bucket(BUCKET_NAME)
+            .key(SHIPMENT_ID + "/other.jpg")
+            .contentType("image/jpeg"),
+        RequestBody.fromBytes(image));
+
+    var responseEntity = restTemplate.getForEntity(
+        BASE_URL + "/api/shipment/" + SHIPMENT_ID + "/image/other.jpg", byte[].class);
+
+    assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, responseEntity.getStatusCode());
+  }
+
+  @Test
+  void testShipmentNotModified() {
+    var url = BASE_URL + "/api/shipment/" + SHIPMENT_ID;
+    var responseEntity = restTemplate.getForEntity(url, String.class);
+
+    assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+    var eTag = responseEntity.getHeaders().getETag();
+    assertNotNull(eTag);
+
+    var notModified = getIfNoneMatch(url, eTag);
+    assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+    assertNull(notModified.getBody());
+  }
+
+  private ResponseEntity<byte[]> getIfNoneMatch(String url, String eTag) {
+    var headers = new HttpHeaders();
+    headers.setIfNoneMatch(eTag);
+    return restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+  }
+
+  private ResponseEntity<byte[]> download(String range) {
+    var headers = new HttpHeaders();
+    headers.set(HttpHeaders.RANGE, range);
+    return restTemplate.exchange(BASE_URL + "/api/shipment/" + SHIPMENT_ID + "/image/download",
+        HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+  }
+
+}
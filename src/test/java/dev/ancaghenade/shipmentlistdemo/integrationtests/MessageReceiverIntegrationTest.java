@@ -1,14 +1,29 @@
 package dev.ancaghenade.shipmentlistdemo.integrationtests;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -19,7 +34,12 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
 
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
 public class MessageReceiverIntegrationTest extends LocalStackSetupConfigurations {
 
   @BeforeAll
@@ -41,13 +61,24 @@ public class MessageReceiverIntegrationTest extends LocalStackSetupConfiguration
 
     lambdaClient.close();
     snsClient.close();
-    sqsClient.close();
     iamClient.close();
 
   }
 
+  @AfterAll
+  public static void tearDown() {
+    sqsClient.close();
+  }
+
   @Test
-  void testSNSSQSMessageReceiver() {
+  @Order(1)
+  void testSNSSQSMessageReceiver() throws Exception {
+    // the connection stays open and receives every event from now on
+    var sseUrl = "/push-endpoint";
+    var events = HttpClient.newHttpClient().sendAsync(
+        HttpRequest.newBuilder(URI.create(BASE_URL + sseUrl)).build(),
+        HttpResponse.BodyHandlers.ofLines());
+
     var imageData = new byte[0];
     try {
       imageData = Files.readAllBytes(Path.of("src/test/java/resources/cat.jpg"));
@@ -78,22 +109,161 @@ public class MessageReceiverIntegrationTest extends LocalStackSetupConfiguration
 
     assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
 
+    var sseEndpointResponse = events.get(10, TimeUnit.SECONDS);
+    assertEquals(HttpStatus.OK.value(), sseEndpointResponse.statusCode());
+
     // give the Lambda time to start up and process the image + send the message to SQS
-    try {
-      Thread.sleep(20000);
+    var received = CompletableFuture.supplyAsync(
+        () -> sseEndpointResponse.body().anyMatch(line -> line.contains(shipmentId)));
+    assertTrue(received.get(60, TimeUnit.SECONDS));
 
-    } catch (InterruptedException e) {
-      e.printStackTrace();
+  }
+
+  @Test
+  @Order(2)
+  void testBatchOfNotifications() throws Exception {
+    var shipmentId = "3317ac4f-1f9b-4bab-a974-4aa9876d5547";
+    var missingShipmentId = "00000000-0000-0000-0000-000000000000";
+    var events = HttpClient.newHttpClient().sendAsync(
+        HttpRequest.newBuilder(URI.create(BASE_URL + "/push-endpoint")).build(),
+        HttpResponse.BodyHandlers.ofLines());
+    var sseEndpointResponse = events.get(10, TimeUnit.SECONDS);
+    assertEquals(HttpStatus.OK.value(), sseEndpointResponse.statusCode());
+
+    // two images for the same shipment, one for a shipment that does not exist, and two
+    // messages that cannot be read
+    var queueUrl = sqsClient.getQueueUrl(
+        request -> request.queueName("update_shipment_picture_queue")).queueUrl();
+    sqsClient.sendMessageBatch(request -> request
+        .queueUrl(queueUrl)
+        .entries(
+            notification("1", shipmentId + "/first.jpg", "2024-01-01T10:00:00.000Z"),
+            notification("2", missingShipmentId + "/other.jpg", "2024-01-01T10:00:01.000Z"),
+            notification("3", shipmentId + "/second.jpg", "2024-01-01T10:00:02.000Z"),
+            SendMessageBatchRequestEntry.builder().id("4").messageBody("not json").build(),
+            SendMessageBatchRequestEntry.builder().id("5")
+                .messageBody(new JSONObject().put("Timestamp", "2024-01-01T10:00:03.000Z")
+                    .toString())
+                .build()));
+
+    var received = CompletableFuture.supplyAsync(() -> sseEndpointResponse.body()
+        .filter(line -> line.startsWith("data:"))
+        .filter(line -> line.contains(shipmentId))
+        .findFirst());
+    var event = received.get(60, TimeUnit.SECONDS);
+    assertTrue(event.isPresent());
+    assertFalse(event.get().contains(missingShipmentId));
+
+    // neither the missing shipment nor the unreadable messages held up the others. The latest
+    // image is kept when both come in one poll, SQS may hand them out in two, in either order
+    var item = dynamoDbClient.getItem(request -> request
+        .tableName("shipment")
+        .key(Map.of("shipmentId", AttributeValue.builder().s(shipmentId).build()))).item();
+    assertTrue(Set.of(shipmentId + "/first.jpg", shipmentId + "/second.jpg")
+        .contains(item.get("imageLink").s()));
+
+    // the unreadable messages were taken off the queue with the rest, nothing comes back
+    var remaining = -1;
+    for (int attempt = 0; attempt < 30 && remaining != 0; attempt++) {
+      var attributes = sqsClient.getQueueAttributes(request -> request
+          .queueUrl(queueUrl)
+          .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES,
+              QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE)).attributes();
+      remaining =
+          Integer.parseInt(attributes.get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES))
+              + Integer.parseInt(attributes.get(
+              QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE));
+      if (remaining != 0) {
+        Thread.sleep(1000);
+      }
     }
+    assertEquals(0, remaining);
+  }
 
-    var sseUrl = "/push-endpoint";
+  @Test
+  @Order(3)
+  void testLateImageOfDeletedShipmentRemoved() throws Exception {
+    // stored by the Lambda for an upload that was still on its way when the shipment was deleted
+    var deletedShipmentId = "11111111-1111-1111-1111-111111111111";
+    for (var key : new String[]{deletedShipmentId + "/late.jpg",
+        deletedShipmentId + "/thumbnails/160/late.jpg"}) {
+      s3Client.putObject(request -> request
+              .bucket(BUCKET_NAME)
+              .key(key)
+              .contentType("image/jpeg")
+              .metadata(Map.of("exclude-lambda", "true")),
+          RequestBody.fromBytes(new byte[]{1}));
+    }
+
+    var queueUrl = sqsClient.getQueueUrl(
+        request -> request.queueName("update_shipment_picture_queue")).queueUrl();
+    sqsClient.sendMessageBatch(request -> request
+        .queueUrl(queueUrl)
+        .entries(notification("1", deletedShipmentId + "/late.jpg", Instant.now().toString())));
+
+    var remainingImages = -1;
+    for (int attempt = 0; attempt < 60 && remainingImages != 0; attempt++) {
+      Thread.sleep(1000);
+      remainingImages = s3Client.listObjectsV2(request -> request
+          .bucket(BUCKET_NAME)
+          .prefix(deletedShipmentId + "/")).keyCount();
+    }
+    assertEquals(0, remainingImages);
+  }
+
+  @Test
+  @Order(4)
+  void testEventsFilteredByShipment() throws Exception {
+    var shipmentId = "3317ac4f-1f9b-4bab-a974-4aa9876d5547";
+    var otherShipmentId = "a7ba93a2-bc88-463f-a27e-3dbcc8ef436e";
+    dynamoDbClient.putItem(request -> request
+        .tableName("shipment")
+        .item(Map.of(
+            "shipmentId", AttributeValue.builder().s(otherShipmentId).build(),
+            "weight", AttributeValue.builder().s("1.0").build())));
+
+    var events = HttpClient.newHttpClient().sendAsync(
+        HttpRequest.newBuilder(URI.create(BASE_URL + "/push-endpoint?shipmentIds=" + shipmentId))
+            .build(),
+        HttpResponse.BodyHandlers.ofLines());
+    var otherEvents = HttpClient.newHttpClient().sendAsync(
+        HttpRequest.newBuilder(
+            URI.create(BASE_URL + "/push-endpoint?shipmentIds=" + otherShipmentId)).build(),
+        HttpResponse.BodyHandlers.ofLines());
+    var sseEndpointResponse = events.get(10, TimeUnit.SECONDS);
+    var otherSseEndpointResponse = otherEvents.get(10, TimeUnit.SECONDS);
+    assertEquals(HttpStatus.OK.value(), sseEndpointResponse.statusCode());
+    assertEquals(HttpStatus.OK.value(), otherSseEndpointResponse.statusCode());
 
-    ResponseEntity<String> sseEndpointResponse = restTemplate.getForEntity(BASE_URL + sseUrl,
-        String.class);
-    assertEquals(HttpStatus.OK, sseEndpointResponse.getStatusCode());
-    assertNotNull(sseEndpointResponse.getBody());
-    assertTrue(sseEndpointResponse.getBody().contains(shipmentId));
+    var queueUrl = sqsClient.getQueueUrl(
+        request -> request.queueName("update_shipment_picture_queue")).queueUrl();
+    sqsClient.sendMessageBatch(request -> request
+        .queueUrl(queueUrl)
+        .entries(
+            notification("1", shipmentId + "/filtered.jpg", Instant.now().toString()),
+            notification("2", otherShipmentId + "/filtered.jpg", Instant.now().toString())));
+
+    // each client only hears of its own shipment, whether the two come in one event or not
+    var received = CompletableFuture.supplyAsync(() -> sseEndpointResponse.body()
+        .filter(line -> line.startsWith("data:"))
+        .findFirst());
+    var otherReceived = CompletableFuture.supplyAsync(() -> otherSseEndpointResponse.body()
+        .filter(line -> line.startsWith("data:"))
+        .findFirst());
+    assertEquals(Optional.of("data:" + shipmentId), received.get(60, TimeUnit.SECONDS));
+    assertEquals(Optional.of("data:" + otherShipmentId), otherReceived.get(60, TimeUnit.SECONDS));
+  }
 
+  // the message as SNS delivers it to the queue
+  private static SendMessageBatchRequestEntry notification(String id, String imageLink,
+      String timestamp) {
+    return SendMessageBatchRequestEntry.builder()
+        .id(id)
+        .messageBody(new JSONObject()
+            .put("Message", imageLink)
+            .put("Timestamp", timestamp)
+            .toString())
+        .build();
   }
 
 }
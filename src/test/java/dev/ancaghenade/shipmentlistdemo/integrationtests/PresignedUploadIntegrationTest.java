@@ -0,0 +1,133 @@
+package dev.ancaghenade.shipmentlistdemo.integrationtests;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ancaghenade.shipmentlistdemo.entity.PresignedImageUrl;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+// the client puts the image to S3 with a presigned URL and confirms it afterwards
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@ActiveProfiles("dev")
+class PresignedUploadIntegrationTest extends LocalStackSetupConfigurations {
+
+  private static final String SHIPMENT_ID = "3317ac4f-1f9b-4bab-a974-4aa9876d5547";
+  private static byte[] image;
+  private static String uploadedImageLink;
+
+  @BeforeAll
+  public static void setup() throws IOException {
+    LocalStackSetupConfigurations.setupConfig();
+
+    localStack.followOutput(logConsumer);
+
+    createClients();
+
+    createS3Bucket();
+    createDynamoDBResources();
+
+    image = Files.readAllBytes(Path.of("src/test/java/resources/cat.jpg"));
+  }
+
+  @AfterAll
+  public static void tearDown() {
+    sqsClient.close();
+    snsClient.close();
+    iamClient.close();
+    lambdaClient.close();
+  }
+
+  @Test
+  @Order(1)
+  void testPresignedUpload() throws Exception {
+    var presignResponse = restTemplate.postForEntity(BASE_URL + "/api/shipment/" + SHIPMENT_ID
+            + "/image/upload-url?fileName=cat.jpg&contentType=image/jpeg&contentLength="
+            + image.length,
+        null, PresignedImageUrl.class);
+
+    assertEquals(HttpStatus.OK, presignResponse.getStatusCode());
+    var presigned = presignResponse.getBody();
+    assertNotNull(presigned);
+    assertEquals("PUT", presigned.getMethod());
+    assertTrue(presigned.getImageLink().startsWith(SHIPMENT_ID + "/"));
+    assertTrue(presigned.getImageLink().endsWith("-cat.jpg"));
+
+    // the signed headers go along, the length is set by the client from the body
+    var upload = HttpRequest.newBuilder(URI.create(presigned.getUrl()))
+        .method(presigned.getMethod(), HttpRequest.BodyPublishers.ofByteArray(image));
+    presigned.getHeaders().forEach((name, values) -> {
+      if (!name.equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH)) {
+        values.forEach(value -> upload.header(name, value));
+      }
+    });
+    var uploadResponse = HttpClient.newHttpClient().send(upload.build(),
+        HttpResponse.BodyHandlers.ofString());
+    assertEquals(HttpStatus.OK.value(), uploadResponse.statusCode());
+
+    var confirmResponse = restTemplate.postForEntity(BASE_URL + "/api/shipment/" + SHIPMENT_ID
+        + "/image/confirm?imageLink=" + presigned.getImageLink(), null, String.class);
+    assertEquals(HttpStatus.OK, confirmResponse.getStatusCode());
+
+    assertEquals(presigned.getImageLink(), imageLink());
+    assertArrayEquals(image, s3Client.getObjectAsBytes(request -> request
+        .bucket(BUCKET_NAME)
+        .key(presigned.getImageLink())).asByteArray());
+    uploadedImageLink = presigned.getImageLink();
+  }
+
+  @Test
+  @Order(2)
+  void testConfirmOutsideOfShipmentRejected() {
+    // an object of another shipment, it exists but must not become this shipment's image
+    var otherImageLink = "00000000-0000-0000-0000-000000000000/cat.jpg";
+    s3Client.putObject(request -> request
+            .bucket(BUCKET_NAME)
+            .key(otherImageLink)
+            .contentType("image/jpeg"),
+        RequestBody.fromBytes(image));
+
+    var confirmResponse = restTemplate.postForEntity(BASE_URL + "/api/shipment/" + SHIPMENT_ID
+        + "/image/confirm?imageLink=" + otherImageLink, null, String.class);
+
+    assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, confirmResponse.getStatusCode());
+    assertEquals(uploadedImageLink, imageLink());
+  }
+
+  @Test
+  @Order(3)
+  void testConfirmWithoutUploadRejected() {
+    var confirmResponse = restTemplate.postForEntity(BASE_URL + "/api/shipment/" + SHIPMENT_ID
+        + "/image/confirm?imageLink=" + SHIPMENT_ID + "/never-uploaded.jpg", null, String.class);
+
+    assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, confirmResponse.getStatusCode());
+    assertEquals(uploadedImageLink, imageLink());
+  }
+
+  private static String imageLink() {
+    return dynamoDbClient.getItem(request -> request
+            .tableName("shipment")
+            .key(Map.of("shipmentId", AttributeValue.builder().s(SHIPMENT_ID).build())))
+        .item().get("imageLink").s();
+  }
+
+}
@@ -0,0 +1,117 @@
+package dev.ancaghenade.shipmentlistdemo.integrationtests;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ancaghenade.shipmentlistdemo.repository.S3MultipartUpload;
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+// the threshold and the part size are lowered to the smallest parts S3 accepts, so that a test
+// upload of a few MB is sent in several parts
+@ActiveProfiles("dev")
+@TestPropertySource(properties = {
+    "aws.s3.multipart.threshold=5MB",
+    "aws.s3.multipart.part-size=5MB"})
+@DirtiesContext
+class S3MultipartUploadIntegrationTest extends LocalStackSetupConfigurations {
+
+  private static final String SHIPMENT_ID = "3317ac4f-1f9b-4bab-a974-4aa9876d5547";
+  private static final int MB = 1024 * 1024;
+
+  @Autowired
+  private S3MultipartUpload s3MultipartUpload;
+
+  @BeforeAll
+  public static void setup() {
+    LocalStackSetupConfigurations.setupConfig();
+
+    localStack.followOutput(logConsumer);
+
+    createClients();
+
+    createS3Bucket();
+    createDynamoDBResources();
+  }
+
+  @AfterAll
+  public static void tearDown() {
+    sqsClient.close();
+    snsClient.close();
+    iamClient.close();
+    lambdaClient.close();
+  }
+
+  @Test
+  void testUploadAboveThreshold() {
+    // three parts, the last one shorter
+    var image = new byte[12 * MB];
+    ThreadLocalRandom.current().nextBytes(image);
+    var resource = new ByteArrayResource(image) {
+      @Override
+      public String getFilename() {
+        return "large.jpg";
+      }
+    };
+    var headers = new HttpHeaders();
+    headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+    MultiValueMap<String, Object> requestBody = new LinkedMultiValueMap<>();
+    requestBody.add("file", resource);
+
+    var responseEntity = restTemplate.exchange(
+        BASE_URL + "/api/shipment/" + SHIPMENT_ID + "/image/upload", HttpMethod.POST,
+        new HttpEntity<>(requestBody, headers), String.class);
+
+    assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+    var imageLink = dynamoDbClient.getItem(request -> request
+            .tableName("shipment")
+            .key(Map.of("shipmentId", AttributeValue.builder().s(SHIPMENT_ID).build())))
+        .item().get("imageLink").s();
+    assertTrue(imageLink.endsWith("-large.jpg"));
+    var stored = s3Client.getObjectAsBytes(request -> request
+        .bucket(BUCKET_NAME)
+        .key(imageLink));
+    // a multipart ETag ends with the number of parts
+    assertTrue(stored.response().eTag().endsWith("-3\""));
+    assertArrayEquals(image, stored.asByteArray());
+    assertEquals(0, s3Client.listMultipartUploads(request -> request.bucket(BUCKET_NAME))
+        .uploads().size());
+  }
+
+  @Test
+  void testUploadAbortedWhenContentEndsEarly() {
+    var key = SHIPMENT_ID + "/truncated.jpg";
+    // the first part is sent before the stream runs dry in the second one
+    var content = new ByteArrayInputStream(new byte[7 * MB]);
+
+    assertThrows(IllegalStateException.class,
+        () -> s3MultipartUpload.upload(key, "image/jpeg", content, 12 * MB));
+
+    // the part already stored is dropped along with the upload
+    assertEquals(0, s3Client.listMultipartUploads(request -> request.bucket(BUCKET_NAME))
+        .uploads().size());
+    assertEquals(0, s3Client.listObjectsV2(request -> request
+        .bucket(BUCKET_NAME)
+        .prefix(key)).keyCount());
+  }
+
+}
@@ -2,12 +2,17 @@ package dev.ancaghenade.shipmentlistdemo.integrationtests;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import dev.ancaghenade.shipmentlistdemo.entity.Shipment;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentPage;
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentWriteResult;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.MethodOrderer;
@@ -183,7 +188,7 @@ class ShipmentServiceIntegrationTest extends LocalStackSetupConfigurations {
 
   @Test
   @Order(7)
-  void testDeleteShipmentFromDynamoDB() {
+  void testDeleteShipmentFromDynamoDB() throws InterruptedException {
 
     var url = "/api/shipment";
     var shipmentId = "/3317ac4f-1f9b-4bab-a974-4aa9876d5547";
@@ -203,6 +208,107 @@ class ShipmentServiceIntegrationTest extends LocalStackSetupConfigurations {
       List<Shipment> shipmentList = getResponseEntity.getBody();
       assertEquals(1, shipmentList.size());
     }
+
+    // the image is deleted in the background, once the cleanup's delay of 10 seconds is over
+    var remainingImages = -1;
+    for (int attempt = 0; attempt < 30 && remainingImages != 0; attempt++) {
+      Thread.sleep(1000);
+      remainingImages = s3Client.listObjectsV2(request -> request
+          .bucket(BUCKET_NAME)
+          .prefix("3317ac4f-1f9b-4bab-a974-4aa9876d5547/")).keyCount();
+    }
+    assertEquals(0, remainingImages);
+  }
+
+  @Test
+  @Order(8)
+  void testGetShipmentPagesFromDynamoDB() {
+
+    var url = "/api/shipment?pageSize=1";
+
+    ResponseEntity<ShipmentPage> firstPage = restTemplate.getForEntity(BASE_URL + url,
+        ShipmentPage.class);
+
+    assertEquals(HttpStatus.OK, firstPage.getStatusCode());
+    assertNotNull(firstPage.getBody());
+    assertEquals(1, firstPage.getBody().getShipments().size());
+    assertNotNull(firstPage.getBody().getNextCursor());
+
+    // the single remaining shipment was on the first page, so the table ends here
+    ResponseEntity<ShipmentPage> secondPage = restTemplate.getForEntity(
+        BASE_URL + url + "&cursor=" + firstPage.getBody().getNextCursor(), ShipmentPage.class);
+
+    assertEquals(HttpStatus.OK, secondPage.getStatusCode());
+    assertNotNull(secondPage.getBody());
+    assertEquals(0, secondPage.getBody().getShipments().size());
+    assertNull(secondPage.getBody().getNextCursor());
+  }
+
+  @Test
+  @Order(9)
+  void testStreamShipmentsAsNdjson() throws IOException {
+
+    var url = "/api/shipment";
+    var headers = new HttpHeaders();
+    headers.setAccept(List.of(MediaType.APPLICATION_NDJSON));
+
+    ResponseEntity<String> responseEntity = restTemplate.exchange(BASE_URL + url,
+        HttpMethod.GET, new HttpEntity<>(headers), String.class);
+
+    assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+    assertNotNull(responseEntity.getBody());
+    var lines = responseEntity.getBody().lines().toList();
+    assertEquals(1, lines.size());
+    assertNotNull(objectMapper.readValue(lines.get(0), Shipment.class).getShipmentId());
+  }
+
+  @Test
+  @Order(10)
+  void testBatchAddShipmentsToDynamoDB() throws IOException {
+
+    var url = "/api/shipment/batch";
+
+    // enough shipments for more than one BatchWriteItem chunk
+    var json = new File("src/test/java/resources/shipmentToUpload.json");
+    List<Shipment> shipments = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      var shipment = objectMapper.readValue(json, Shipment.class);
+      shipment.setShipmentId("batch-" + i);
+      shipments.add(shipment);
+    }
+
+    var headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+
+    ResponseEntity<List<ShipmentWriteResult>> responseEntity = restTemplate.exchange(
+        BASE_URL + url, HttpMethod.POST, new HttpEntity<>(shipments, headers),
+        new ParameterizedTypeReference<>() {
+        });
+
+    assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+    assertNotNull(responseEntity.getBody());
+    assertEquals(30, responseEntity.getBody().size());
+    for (int i = 0; i < 30; i++) {
+      assertEquals("batch-" + i, responseEntity.getBody().get(i).getShipmentId());
+      assertTrue(responseEntity.getBody().get(i).isWritten());
+    }
+  }
+
+  @Test
+  @Order(11)
+  void testGetShipmentsByIdsFromDynamoDB() {
+
+    var url = "/api/shipment?ids=batch-3,does-not-exist,batch-1";
+
+    ResponseEntity<List<Shipment>> responseEntity = restTemplate.exchange(BASE_URL + url,
+        HttpMethod.GET, null, new ParameterizedTypeReference<>() {
+        });
+
+    assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+    assertNotNull(responseEntity.getBody());
+    // request order is kept and unknown ids are skipped
+    assertEquals(List.of("batch-3", "batch-1"),
+        responseEntity.getBody().stream().map(Shipment::getShipmentId).toList());
   }
 
 }
@@ -0,0 +1,127 @@
+package dev.ancaghenade.shipmentlistdemo.integrationtests;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ancaghenade.shipmentlistdemo.service.SseBroadcaster;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+// a client that reconnects with the id of the last event it has seen gets the events it missed,
+// as long as they are still kept; the queue of a client, and with it the events kept, is small
+// here so that a gap is soon too wide
+@TestPropertySource(properties = "shipment.sse.queue-capacity=4")
+@DirtiesContext
+class SseReplayIntegrationTest extends LocalStackSetupConfigurations {
+
+  @Autowired
+  private SseBroadcaster sseBroadcaster;
+
+  @BeforeAll
+  public static void setup() {
+    LocalStackSetupConfigurations.setupConfig();
+
+    localStack.followOutput(logConsumer);
+
+    createClients();
+
+    createDynamoDBResources();
+    createSQS();
+  }
+
+  @AfterAll
+  public static void tearDown() {
+    sqsClient.close();
+    snsClient.close();
+    iamClient.close();
+    lambdaClient.close();
+  }
+
+  @Test
+  void testMissedEventsReplayed() throws Exception {
+    var lastEventId = lastEventIdAfter("first");
+
+    // sent while the client is away
+    sseBroadcaster.broadcast(List.of("second"));
+    sseBroadcaster.broadcast(List.of("third"));
+
+    try (var lines = connect(lastEventId)) {
+      assertEquals(List.of("data:second", "data:third"), dataLines(lines, 2));
+    }
+  }
+
+  @Test
+  void testResetWhenGapNoLongerKept() throws Exception {
+    var lastEventId = lastEventIdAfter("first");
+
+    // more events than are kept
+    for (int i = 0; i < 5; i++) {
+      sseBroadcaster.broadcast(List.of("missed-" + i));
+    }
+
+    try (var lines = connect(lastEventId)) {
+      assertEquals(List.of("data:reset"), dataLines(lines, 1));
+    }
+  }
+
+  @Test
+  void testResetForIdOfAnotherStream() throws Exception {
+    // an id from before a restart
+    try (var lines = connect("unknown-1")) {
+      assertEquals(List.of("data:reset"), dataLines(lines, 1));
+    }
+  }
+
+  // the id of the given event as a client connected at the time sees it
+  private String lastEventIdAfter(String shipmentId) throws Exception {
+    try (var lines = connect(null)) {
+      // the subscription is taken up on the broadcaster's own thread, before this event
+      sseBroadcaster.broadcast(List.of(shipmentId));
+      var id = CompletableFuture.supplyAsync(() -> {
+        String previous = null;
+        for (var line : (Iterable<String>) lines::iterator) {
+          if (line.equals("data:" + shipmentId)) {
+            return previous;
+          }
+          previous = line;
+        }
+        return null;
+      }).get(10, TimeUnit.SECONDS);
+      assertTrue(id != null && id.startsWith("id:"));
+      return id.substring("id:".length());
+    }
+  }
+
+  private Stream<String> connect(String lastEventId) throws Exception {
+    var request = HttpRequest.newBuilder(URI.create(BASE_URL + "/push-endpoint"));
+    if (lastEventId != null) {
+      request.header("Last-Event-ID", lastEventId);
+    }
+    var response = HttpClient.newHttpClient()
+        .send(request.build(), HttpResponse.BodyHandlers.ofLines());
+    assertEquals(HttpStatus.OK.value(), response.statusCode());
+    return response.body();
+  }
+
+  private static List<String> dataLines(Stream<String> lines, int count) throws Exception {
+    return CompletableFuture.supplyAsync(() -> lines
+            .filter(line -> line.startsWith("data:"))
+            .limit(count)
+            .toList())
+        .get(10, TimeUnit.SECONDS);
+  }
+
+}
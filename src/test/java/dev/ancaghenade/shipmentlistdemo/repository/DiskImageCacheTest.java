@@ -0,0 +1,211 @@
+package dev.ancaghenade.shipmentlistdemo.repository;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentImage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class DiskImageCacheTest {
+
+  private static final String KEY = "3317ac4f-1f9b-4bab-a974-4aa9876d5547/cat.jpg";
+  private static final String ETAG = "\"etag\"";
+  private static final byte[] IMAGE = new byte[100];
+
+  static {
+    for (int i = 0; i < IMAGE.length; i++) {
+      IMAGE[i] = (byte) i;
+    }
+  }
+
+  @TempDir
+  Path directory;
+
+  private StubStorage storage;
+  private DiskImageCache diskImageCache;
+
+  @BeforeEach
+  void start() throws IOException {
+    storage = new StubStorage();
+    diskImageCache = newCache();
+  }
+
+  @AfterEach
+  void stop() {
+    diskImageCache.stop();
+  }
+
+  @Test
+  void testWholeImageFromFile() throws Exception {
+    fill(diskImageCache);
+
+    var image = diskImageCache.get(KEY, null).orElseThrow();
+    assertEquals(ETAG, image.getETag());
+    assertEquals("image/jpeg", image.getContentType());
+    assertTrue(image.isImmutable());
+    assertNull(image.getContentRange());
+    assertEquals(0, image.getFileOffset());
+    assertEquals(IMAGE.length, image.getContentLength());
+    // the trailer follows the image in the file and is not part of it
+    assertTrue(Files.size(image.getFile()) > IMAGE.length);
+    assertArrayEquals(IMAGE, read(image));
+  }
+
+  @Test
+  void testRangesFromFile() throws Exception {
+    fill(diskImageCache);
+
+    var first = diskImageCache.get(KEY, "bytes=0-9").orElseThrow();
+    assertEquals("bytes 0-9/100", first.getContentRange());
+    assertArrayEquals(Arrays.copyOfRange(IMAGE, 0, 10), read(first));
+
+    var last = diskImageCache.get(KEY, "bytes=-10").orElseThrow();
+    assertEquals("bytes 90-99/100", last.getContentRange());
+    assertArrayEquals(Arrays.copyOfRange(IMAGE, 90, 100), read(last));
+
+    var open = diskImageCache.get(KEY, "bytes=95-").orElseThrow();
+    assertEquals("bytes 95-99/100", open.getContentRange());
+    assertArrayEquals(Arrays.copyOfRange(IMAGE, 95, 100), read(open));
+
+    // an end past the image is cut off, a start past it is left to S3 to reject
+    var clipped = diskImageCache.get(KEY, "bytes=50-1000").orElseThrow();
+    assertEquals("bytes 50-99/100", clipped.getContentRange());
+    assertTrue(diskImageCache.get(KEY, "bytes=100-").isEmpty());
+  }
+
+  @Test
+  void testIndexRebuiltAfterRestart() throws Exception {
+    fill(diskImageCache);
+    diskImageCache.stop();
+    // left behind by writes that did not finish
+    var temp = Files.write(directory.resolve("unfinished.tmp"), IMAGE);
+    var truncated = Files.write(directory.resolve("truncated.img"), IMAGE);
+
+    var restarted = newCache();
+    try {
+      var image = restarted.get(KEY, null).orElseThrow();
+      assertEquals(ETAG, image.getETag());
+      assertEquals("image/jpeg", image.getContentType());
+      assertArrayEquals(IMAGE, read(image));
+      assertFalse(Files.exists(temp));
+      assertFalse(Files.exists(truncated));
+    } finally {
+      restarted.stop();
+    }
+  }
+
+  @Test
+  void testNotStoredAfterInvalidate() throws Exception {
+    var download = new CompletableFuture<Void>();
+    storage.download = download;
+    diskImageCache.fill(KEY, image());
+
+    // the shipment was deleted while its image was on the way to disk
+    diskImageCache.invalidateShipment("3317ac4f-1f9b-4bab-a974-4aa9876d5547");
+    download.complete(null);
+
+    awaitFillDone();
+    assertTrue(diskImageCache.get(KEY, null).isEmpty());
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(0, files.count());
+    }
+
+    // nothing comes back after a restart either
+    diskImageCache.stop();
+    var restarted = newCache();
+    try {
+      assertTrue(restarted.get(KEY, null).isEmpty());
+    } finally {
+      restarted.stop();
+    }
+  }
+
+  private DiskImageCache newCache() throws IOException {
+    var cache = new DiskImageCache(storage, new SimpleMeterRegistry(), true, directory,
+        DataSize.ofMegabytes(1), DataSize.ofKilobytes(1));
+    cache.start();
+    return cache;
+  }
+
+  private void fill(DiskImageCache cache) throws InterruptedException {
+    cache.fill(KEY, image());
+    for (int attempt = 0; attempt < 50 && cache.get(KEY, null).isEmpty(); attempt++) {
+      TimeUnit.MILLISECONDS.sleep(100);
+    }
+    assertTrue(cache.get(KEY, null).isPresent());
+  }
+
+  // the store runs on the cache's worker after the download
+  private void awaitFillDone() throws InterruptedException {
+    for (int attempt = 0; attempt < 50; attempt++) {
+      try (Stream<Path> files = Files.list(directory)) {
+        if (files.findAny().isEmpty()) {
+          return;
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      TimeUnit.MILLISECONDS.sleep(100);
+    }
+  }
+
+  private static ShipmentImage image() {
+    return ShipmentImage.builder()
+        .contentType("image/jpeg")
+        .contentLength(IMAGE.length)
+        .eTag(ETAG)
+        .immutable(true)
+        .build();
+  }
+
+  private static byte[] read(ShipmentImage image) throws IOException {
+    try (var channel = FileChannel.open(image.getFile())) {
+      var buffer = ByteBuffer.allocate((int) image.getContentLength());
+      channel.read(buffer, image.getFileOffset());
+      return buffer.array();
+    }
+  }
+
+  // writes the image to the given file the way the SDK does, once the download completes
+  private static class StubStorage extends S3StorageService {
+
+    private CompletableFuture<Void> download = CompletableFuture.completedFuture(null);
+
+    private StubStorage() {
+      super(null, null, null, null, null, null, DataSize.ofMegabytes(16), Duration.ofMinutes(1),
+          Duration.ofMinutes(1));
+    }
+
+    @Override
+    public CompletableFuture<ShipmentImage> downloadToFile(String key, String ifMatch,
+        Path file) {
+      return download.thenApply(ignored -> {
+        try {
+          Files.write(file, IMAGE);
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+        return image();
+      });
+    }
+  }
+
+}
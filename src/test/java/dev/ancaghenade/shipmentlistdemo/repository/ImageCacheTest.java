@@ -0,0 +1,112 @@
+package dev.ancaghenade.shipmentlistdemo.repository;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ancaghenade.shipmentlistdemo.entity.ShipmentImage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+class ImageCacheTest {
+
+  private static final String KEY = "3317ac4f-1f9b-4bab-a974-4aa9876d5547/cat.jpg";
+  private static final byte[] IMAGE = "not really a cat".getBytes();
+
+  private final ImageCache imageCache = new ImageCache(new SimpleMeterRegistry(),
+      DataSize.ofMegabytes(1), DataSize.ofKilobytes(1), Duration.ofMinutes(1), false);
+
+  @Test
+  void testFilledOnceReadToTheEnd() throws IOException {
+    var image = imageCache.fill(KEY, image());
+    assertTrue(imageCache.get(KEY).isEmpty());
+
+    try (var content = image.getContent()) {
+      assertArrayEquals(IMAGE, content.readAllBytes());
+    }
+
+    var cached = imageCache.get(KEY);
+    assertTrue(cached.isPresent());
+    assertEquals("\"etag\"", cached.get().getETag());
+    assertArrayEquals(IMAGE, cached.get().getContent().readAllBytes());
+  }
+
+  @Test
+  void testNotFilledWhenClosedEarly() throws IOException {
+    var image = imageCache.fill(KEY, image());
+
+    try (var content = image.getContent()) {
+      content.readNBytes(4);
+    }
+
+    assertTrue(imageCache.get(KEY).isEmpty());
+  }
+
+  @Test
+  void testNotFilledAfterInvalidate() throws IOException {
+    var image = imageCache.fill(KEY, image());
+    var content = image.getContent();
+    content.readNBytes(4);
+
+    // the image was replaced while the old one was still being read
+    imageCache.invalidate(KEY);
+    content.readAllBytes();
+    content.close();
+
+    assertTrue(imageCache.get(KEY).isEmpty());
+  }
+
+  @Test
+  void testNotFilledAfterShipmentInvalidated() throws IOException {
+    var image = imageCache.fill(KEY, image());
+    var content = image.getContent();
+    content.readNBytes(4);
+
+    imageCache.invalidateShipment("3317ac4f-1f9b-4bab-a974-4aa9876d5547");
+    content.readAllBytes();
+    content.close();
+
+    assertTrue(imageCache.get(KEY).isEmpty());
+  }
+
+  @Test
+  void testFilledAgainAfterInvalidate() throws IOException {
+    imageCache.fill(KEY, image());
+    imageCache.invalidate(KEY);
+
+    // a download that starts after the invalidation is cached as usual
+    var image = imageCache.fill(KEY, image());
+    try (var content = image.getContent()) {
+      content.readAllBytes();
+    }
+
+    assertTrue(imageCache.get(KEY).isPresent());
+  }
+
+  @Test
+  void testOtherShipmentsKeepFilling() throws IOException {
+    var otherKey = "00000000-0000-0000-0000-000000000000/cat.jpg";
+    var image = imageCache.fill(otherKey, image());
+
+    imageCache.invalidateShipment("3317ac4f-1f9b-4bab-a974-4aa9876d5547");
+    try (var content = image.getContent()) {
+      content.readAllBytes();
+    }
+
+    assertTrue(imageCache.get(otherKey).isPresent());
+  }
+
+  private static ShipmentImage image() {
+    return ShipmentImage.builder()
+        .content(new ByteArrayInputStream(IMAGE))
+        .contentType("image/jpeg")
+        .contentLength(IMAGE.length)
+        .eTag("\"etag\"")
+        .build();
+  }
+
+}
@@ -0,0 +1,40 @@
+package dev.ancaghenade.shipmentlistdemo.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.OptionalInt;
+import org.junit.jupiter.api.Test;
+
+class ImageThumbnailsTest {
+
+  private static final List<Integer> WIDTHS = List.of(160, 320, 640);
+
+  @Test
+  void testThumbnailKey() {
+    assertEquals("3317ac4f-1f9b-4bab-a974-4aa9876d5547/thumbnails/320/cat.jpg",
+        ImageThumbnails.thumbnailKey("3317ac4f-1f9b-4bab-a974-4aa9876d5547/cat.jpg", 320));
+  }
+
+  @Test
+  void testClosestWidthNotNarrowerThanAsked() {
+    assertEquals(OptionalInt.of(160), ImageThumbnails.closestWidth(WIDTHS, 1));
+    assertEquals(OptionalInt.of(160), ImageThumbnails.closestWidth(WIDTHS, 160));
+    assertEquals(OptionalInt.of(320), ImageThumbnails.closestWidth(WIDTHS, 161));
+    assertEquals(OptionalInt.of(640), ImageThumbnails.closestWidth(WIDTHS, 640));
+  }
+
+  @Test
+  void testClosestWidthIgnoresOrder() {
+    assertEquals(OptionalInt.of(320), ImageThumbnails.closestWidth(List.of(640, 320, 160), 200));
+  }
+
+  @Test
+  void testNoClosestWidthAboveTheWidest() {
+    // only the original is wide enough
+    assertTrue(ImageThumbnails.closestWidth(WIDTHS, 641).isEmpty());
+    assertTrue(ImageThumbnails.closestWidth(List.of(), 160).isEmpty());
+  }
+
+}
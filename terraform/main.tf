@@ -43,6 +43,33 @@ resource "aws_s3_bucket" "shipment_picture_bucket" {
   }
 }
 
+# Remove the parts of multipart uploads that were never completed or aborted
+resource "aws_s3_bucket_lifecycle_configuration" "shipment_picture_bucket_lifecycle" {
+  bucket = aws_s3_bucket.shipment_picture_bucket.id
+
+  rule {
+    id     = "abort-incomplete-multipart-uploads"
+    status = "Enabled"
+    filter {}
+    abort_incomplete_multipart_upload {
+      days_after_initiation = 1
+    }
+  }
+}
+
+# Let the frontend upload and download images with presigned URLs
+resource "aws_s3_bucket_cors_configuration" "shipment_picture_bucket_cors" {
+  bucket = aws_s3_bucket.shipment_picture_bucket.id
+
+  cors_rule {
+    allowed_headers = ["*"]
+    allowed_methods = ["GET", "PUT"]
+    allowed_origins = ["http://localhost:3000"]
+    expose_headers  = ["ETag"]
+    max_age_seconds = 3000
+  }
+}
+
 # DynamoDB table creation
 resource "aws_dynamodb_table" "shipment" {
   name           = "shipment"
@@ -101,6 +128,7 @@ resource "aws_lambda_function" "shipment_picture_lambda_validator" {
       BUCKET = aws_s3_bucket.shipment_picture_bucket.bucket
       SNS_TOPIC_ARN_DEV = local.sns_topic_arn_dev
       SNS_TOPIC_ARN_PROD = local.sns_topic_arn_prod
+      THUMBNAIL_WIDTHS = "160,320,640"
     }
   }
 }
@@ -191,9 +219,41 @@ resource "aws_sns_topic" "update_shipment_picture_topic" {
   name = "${var.sns_topic_name}"
 }
 
-# Define the queue
+# Picture updates are published here once stored, every app instance subscribes a queue of its
+# own at startup and removes it on shutdown
+resource "aws_sns_topic" "shipment_events_topic" {
+  name = "shipment_events_topic"
+}
+
+# Define the queue; a batch of notifications that keeps failing ends up in the dead-letter queue
+# instead of coming back for good
+resource "aws_sqs_queue" "update_shipment_picture_dlq" {
+  name                      = "update_shipment_picture_dlq"
+  message_retention_seconds = 1209600
+}
+
 resource "aws_sqs_queue" "update_shipment_picture_queue" {
   name = "update_shipment_picture_queue"
+  redrive_policy = jsonencode({
+    deadLetterTargetArn = aws_sqs_queue.update_shipment_picture_dlq.arn
+    maxReceiveCount     = 5
+  })
+}
+
+# Images of deleted shipments are removed in the background; a cleanup that keeps failing ends
+# up in the dead-letter queue
+resource "aws_sqs_queue" "shipment_image_cleanup_dlq" {
+  name                      = "shipment_image_cleanup_dlq"
+  message_retention_seconds = 1209600
+}
+
+resource "aws_sqs_queue" "shipment_image_cleanup_queue" {
+  name                       = "shipment_image_cleanup_queue"
+  visibility_timeout_seconds = 300
+  redrive_policy = jsonencode({
+    deadLetterTargetArn = aws_sqs_queue.shipment_image_cleanup_dlq.arn
+    maxReceiveCount     = 5
+  })
 }
 
 # Define subscription